@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.builder;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.metrics.builder.MetricsBuilder.Command;
+import net.sourceforge.metrics.core.Log;
+import net.sourceforge.metrics.core.sources.HandleIndex;
+
+/**
+ * Executes dequeued commands on a bounded pool of worker threads. Compilation units are calculated concurrently, but a command is held back as long as a command for the same element or for one of its descendants is still running or
+ * waiting. This guarantees that package, source folder and project metrics are only aggregated after all of their children have been stored in the cache. Internal use only
+ * 
+ * @author Frank Sauer
+ */
+class CalculatorPool {
+
+	private ThreadPoolExecutor executor;
+	private int size;
+
+	// commands handed to the executor that have not finished yet
+	private List<Command> running = new ArrayList<Command>();
+	// worker threads of the running commands that have actually started, keyed by identity like running and waiting
+	private Map<Command, Thread> workers = new IdentityHashMap<Command, Thread>();
+	// commands waiting for running or waiting descendants, in queue order
+	private LinkedList<Command> waiting = new LinkedList<Command>();
+
+	CalculatorPool(int size) {
+		this.size = Math.max(1, size);
+		executor = new ThreadPoolExecutor(this.size, this.size, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * change the number of worker threads, takes effect for the next command
+	 * 
+	 * @param newSize
+	 */
+	synchronized void setSize(int newSize) {
+		newSize = Math.max(1, newSize);
+		if (newSize != size) {
+			if (newSize > size) {
+				executor.setMaximumPoolSize(newSize);
+				executor.setCorePoolSize(newSize);
+			} else {
+				executor.setCorePoolSize(newSize);
+				executor.setMaximumPoolSize(newSize);
+			}
+			size = newSize;
+			notifyAll();
+		}
+	}
+
+	synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Blocks until fewer commands are running than there are workers.
+	 * 
+	 * @throws InterruptedException
+	 */
+	synchronized void awaitWorker() throws InterruptedException {
+		while (running.size() >= size) {
+			wait();
+		}
+	}
+
+	/**
+	 * Blocks until all submitted commands have completed or were aborted.
+	 * 
+	 * @throws InterruptedException
+	 */
+	synchronized void awaitIdle() throws InterruptedException {
+		while (isBusy()) {
+			wait();
+		}
+	}
+
+	/**
+	 * @return true if commands are running or waiting for their descendants
+	 */
+	synchronized boolean isBusy() {
+		return running.size() > 0 || waiting.size() > 0;
+	}
+
+	/**
+	 * Start the command on a worker thread or, if any of its descendants are still pending, keep it until they are all done.
+	 * 
+	 * @param command
+	 */
+	synchronized void submit(Command command) {
+		if (hasPendingDescendants(command)) {
+			waiting.addLast(command);
+		} else {
+			start(command);
+		}
+	}
+
+	/**
+	 * Drop all running and waiting commands for the given project and interrupt the workers currently calculating them
+	 * 
+	 * @param projectHandle
+	 */
+	synchronized void abort(String projectHandle) {
+		for (Iterator<Command> i = waiting.iterator(); i.hasNext();) {
+			if (belongsTo(i.next(), projectHandle)) {
+				i.remove();
+			}
+		}
+		for (Iterator<Command> i = running.iterator(); i.hasNext();) {
+			Command next = i.next();
+			if (belongsTo(next, projectHandle)) {
+				Thread worker = workers.remove(next);
+				if (worker != null) {
+					worker.interrupt();
+				}
+				i.remove();
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @param command
+	 * @param projectHandle
+	 * @return true if the command is for the project itself or one of its descendants, but not for another project whose name starts the same
+	 */
+	private static boolean belongsTo(Command command, String projectHandle) {
+		String handle = command.getHandleIdentifier();
+		return handle.equals(projectHandle) || HandleIndex.isDescendant(handle, projectHandle);
+	}
+
+	private void start(Command command) {
+		running.add(command);
+		executor.execute(new Worker(command));
+	}
+
+	/**
+	 * Answers true if a command for the same element or any of its descendants is running, or is waiting in front of the given command.
+	 * 
+	 * @param command
+	 * @return boolean
+	 */
+	private boolean hasPendingDescendants(Command command) {
+		for (Command next : running) {
+			if (next != command && next.isPendingFor(command)) {
+				return true;
+			}
+		}
+		for (Command next : waiting) {
+			if (next == command) {
+				break;
+			}
+			if (next.isPendingFor(command)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * register the current thread as the worker for the command
+	 * 
+	 * @param command
+	 * @return false if the command was aborted before it could start
+	 */
+	private synchronized boolean begin(Command command) {
+		if (!containsIdentical(running, command)) {
+			return false;
+		}
+		workers.put(command, Thread.currentThread());
+		return true;
+	}
+
+	/**
+	 * remove the completed command and start all waiting commands that no longer wait for anything
+	 * 
+	 * @param command
+	 */
+	private synchronized void end(Command command) {
+		if (workers.get(command) == Thread.currentThread()) {
+			workers.remove(command);
+		}
+		for (Iterator<Command> i = running.iterator(); i.hasNext();) {
+			if (i.next() == command) {
+				i.remove();
+				break;
+			}
+		}
+		for (Iterator<Command> i = waiting.iterator(); i.hasNext();) {
+			Command next = i.next();
+			if (!hasPendingDescendants(next)) {
+				i.remove();
+				start(next);
+			}
+		}
+		notifyAll();
+	}
+
+	private static boolean containsIdentical(List<Command> commands, Command command) {
+		for (Command next : commands) {
+			if (next == command) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs a single command and releases whatever was waiting for it
+	 */
+	private class Worker implements Runnable {
+
+		private Command command;
+
+		Worker(Command command) {
+			this.command = command;
+		}
+
+		public void run() {
+			if (!begin(command)) {
+				return;
+			}
+			try {
+				MetricsBuilder.calculate(command);
+			} catch (Throwable t) {
+				Log.logError("Error calculating metrics for " + command.getHandleIdentifier(), t);
+			} finally {
+				end(command);
+			}
+		}
+	}
+
+	private static class WorkerFactory implements ThreadFactory {
+
+		private int count = 0;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Metrics Calculator Worker " + (++count));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
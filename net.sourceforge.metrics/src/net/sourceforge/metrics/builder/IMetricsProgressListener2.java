@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+
+package net.sourceforge.metrics.builder;
+
+import org.eclipse.jdt.core.IJavaElement;
+
+/**
+ * Optional extension of IMetricsProgressListener. Listeners that only implement IMetricsProgressListener are told that an unchanged element
+ * completed, with its cached metrics as data.
+ * 
+ * @author Frank Sauer
+ */
+public interface IMetricsProgressListener2 extends IMetricsProgressListener {
+
+	/**
+	 * announces that the element was not recalculated because it did not change since its metrics were calculated
+	 * 
+	 * @param element
+	 * @param data
+	 *            the cached metrics
+	 */
+	public void unchanged(IJavaElement element, Object data);
+
+}
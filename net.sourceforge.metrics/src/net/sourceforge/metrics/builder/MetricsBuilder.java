@@ -21,18 +21,30 @@
 
 package net.sourceforge.metrics.builder;
 
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
 import net.sourceforge.metrics.core.Constants;
 import net.sourceforge.metrics.core.Log;
+import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 import net.sourceforge.metrics.core.sources.Cache;
+import net.sourceforge.metrics.core.sources.CompilationUnitMetrics;
 import net.sourceforge.metrics.core.sources.Dispatcher;
+import net.sourceforge.metrics.core.sources.HandleDictionary;
+import net.sourceforge.metrics.core.sources.HandleIndex;
+import net.sourceforge.metrics.core.sources.PackageDependencies;
+import net.sourceforge.metrics.core.sources.StoredResults;
+import net.sourceforge.metrics.core.sources.TypeHierarchies;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
@@ -41,12 +53,17 @@ import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaModelMarker;
 import org.eclipse.jdt.core.IJavaProject;
@@ -54,6 +71,9 @@ import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 
 /**
  * builder to (re)calculate metrics for modified java resources.
@@ -66,12 +86,22 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	
 	private static Queue queue = new Queue();
 	private static CalculatorThread thread = null;
+	private static CalculatorPool pool = null;
 	private static ProgressQueue notifier = new ProgressQueue(queue);
+	private static volatile boolean paused = false;
 
 	private static Set<String> currentProjects = new HashSet<String>();
+	// handles of the elements recalculated, added or removed since their project was last completed
+	private static Set<String> changedHandles = new HashSet<String>();
+	// per package, source folder and project: its changed children as they were when it was last calculated (null if added since)
+	private static Map<String, Map<String, AbstractMetricSource>> previousChildren = new HashMap<String, Map<String, AbstractMetricSource>>();
 
 	private static Boolean headless = null;
 
+	// build argument requesting only the metrics calculated with other calculators or preferences to be recalculated
+	private static final String STALE = "stale";
+	private static Job staleJob = null;
+
 	public MetricsBuilder() {
 		super();
 	}
@@ -109,10 +139,19 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 			if (currentProject == null) {
 				return null;
 			}
+			boolean stale = (args != null) && args.containsKey(STALE);
+			// the builder is called on empty deltas (see plugin.xml) only so the stale build started by recalculateStale() runs
+			if (!stale && (kind != IncrementalProjectBuilder.FULL_BUILD) && isEmpty(getDelta(getProject()))) {
+				return null;
+			}
 			// Log.logMessage("New build started for " +
 			// currentProject.getElementName());
 			startCalculatorThread();
-			if (kind == IncrementalProjectBuilder.FULL_BUILD) {
+			if (stale) {
+				if (Cache.singleton.get(currentProject) != null) {
+					staleBuild(currentProject, monitor);
+				}
+			} else if (kind == IncrementalProjectBuilder.FULL_BUILD) {
 				fullBuild(currentProject, monitor);
 			} else {
 				// check for a previously completed full build
@@ -132,6 +171,14 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 		return null;
 	}
 
+	/**
+	 * @param delta
+	 * @return true if the delta contains no changes, false if it does or if there is no delta (everything changed)
+	 */
+	private static boolean isEmpty(IResourceDelta delta) {
+		return (delta != null) && (delta.getKind() == IResourceDelta.NO_CHANGE) && (delta.getAffectedChildren().length == 0);
+	}
+
 	/**
 	 * determine if project has compilation errors
 	 * 
@@ -161,12 +208,28 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	}
 
 	private static void startCalculatorThread() {
+		getPool();
 		if (thread == null) {
 			thread = new CalculatorThread();
 			thread.start();
 		}
 	}
 
+	/**
+	 * Get the worker pool, resized to the number of threads currently configured in the preferences
+	 * 
+	 * @return CalculatorPool
+	 */
+	private static synchronized CalculatorPool getPool() {
+		int size = MetricsPlugin.getCalculatorThreads();
+		if (pool == null) {
+			pool = new CalculatorPool(size);
+		} else {
+			pool.setSize(size);
+		}
+		return pool;
+	}
+
 	/**
 	 * Answers true if the commandline that started eclipse contained "-noupdate" This is used to determine whether to calculate metrics in the background (normal operation in UI) or in the foreground (headless operation from Ant)
 	 * 
@@ -195,11 +258,93 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	protected void fullBuild(IJavaProject currentProject, IProgressMonitor monitor) throws CoreException {
 		MetricsBuildVisitor v = new MetricsBuildVisitor(monitor);
 		Cache.singleton.clear(currentProject.getElementName());
+		TypeHierarchies.singleton.invalidate(currentProject);
+		PackageDependencies.singleton.clear(currentProject.getHandleIdentifier());
 		getProject().accept(v);
 		checkCancel(monitor);
+		v.batchCompilationUnits();
 		v.execute();
 	}
 
+	/**
+	 * recalculate the metrics of the java resources in the project that were calculated with other calculators or preferences, all other
+	 * metrics are reused
+	 * 
+	 * @param monitor
+	 * @throws CoreException
+	 * @see #recalculateStale()
+	 */
+	protected void staleBuild(IJavaProject currentProject, IProgressMonitor monitor) throws CoreException {
+		MetricsBuildVisitor v = new MetricsBuildVisitor(monitor);
+		TypeHierarchies.singleton.buildStarted(currentProject);
+		getProject().accept(v);
+		checkCancel(monitor);
+		v.execute();
+	}
+
+	/**
+	 * Recalculate the metrics that are out of date in the background, for all projects with metrics enabled. Used when a preference read by
+	 * some calculators changed: only the values of those calculators (and the metrics depending on them) are calculated again. Preference pages
+	 * change several preferences at once, so the recalculation starts after a short delay.
+	 */
+	public static synchronized void recalculateStale() {
+		if (isHeadless()) {
+			return;
+		}
+		if (staleJob == null) {
+			staleJob = new Job("Recalculating metrics") {
+
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					Map<String, String> args = new HashMap<String, String>();
+					args.put(STALE, "true");
+					for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+						try {
+							if (project.isOpen() && project.hasNature(Constants.PLUGIN_ID + ".nature")) {
+								project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, BUILDER_ID, args, monitor);
+							}
+						} catch (OperationCanceledException e) {
+							return Status.CANCEL_STATUS;
+						} catch (CoreException e) {
+							Log.logError("Could not recalculate metrics of " + project.getName(), e);
+						}
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			staleJob.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+		}
+		staleJob.schedule(500);
+	}
+
+	/**
+	 * Calculate all metrics of the project again in the background. Used when its stored metrics had to be discarded: builds only start a full
+	 * build by themselves if the project's resources changed, and stale builds skip projects without stored metrics.
+	 * 
+	 * @param projectName
+	 */
+	public static void requestFullBuild(final String projectName) {
+		Job job = new Job("Calculating metrics of " + projectName) {
+
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(projectName);
+				try {
+					if (project.isOpen() && project.hasNature(Constants.PLUGIN_ID + ".nature")) {
+						project.build(IncrementalProjectBuilder.FULL_BUILD, BUILDER_ID, null, monitor);
+					}
+				} catch (OperationCanceledException e) {
+					return Status.CANCEL_STATUS;
+				} catch (CoreException e) {
+					Log.logError("Could not calculate metrics of " + projectName, e);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setRule(ResourcesPlugin.getWorkspace().getRuleFactory().buildRule());
+		job.schedule(500);
+	}
+
 	/**
 	 * recalculate metrics for changed/added/removed java resources
 	 * 
@@ -214,6 +359,8 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 				return;
 			}
 			MetricsBuildVisitor v = new MetricsBuildVisitor(monitor);
+			v.setDelay(MetricsPlugin.getBuildDelay());
+			TypeHierarchies.singleton.buildStarted(JavaCore.create(getProject()));
 			delta.accept(v);
 			checkCancel(monitor);
 			v.execute();
@@ -288,12 +435,24 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	class MetricsBuildVisitor implements IResourceVisitor, IResourceDeltaVisitor {
 
 		private Stack<Command> stack = new Stack<Command>();
+		// handles of the elements pushed on the stack
+		private Set<String> handles = new HashSet<String>();
 		private IProgressMonitor monitor;
+		private long delay = 0;
 
 		MetricsBuildVisitor(IProgressMonitor monitor) {
 			this.monitor = monitor;
 		}
 
+		/**
+		 * @param delay
+		 *            milliseconds the queued commands wait for more changes before they are calculated
+		 * @see Queue#queue(Command, long)
+		 */
+		void setDelay(long delay) {
+			this.delay = delay;
+		}
+
 		/**
 		 * pushes ChangedCommand for all resources in a project (full build)
 		 */
@@ -309,7 +468,6 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 		 * @param res
 		 * @return FilterResult
 		 */
-		@SuppressWarnings("unlikely-arg-type")
 		private FilterResult filter(IResource resource) {
 			FilterResult result = new FilterResult();
 			result.processChildren = false;
@@ -329,7 +487,8 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 			}
 
 			// same thing shows up once in classes, once in src...
-			if (stack.contains(element)) {
+			String handle = element.getHandleIdentifier();
+			if (handles.contains(handle)) {
 				return result;
 			}
 
@@ -394,6 +553,7 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 				}
 			}
 			result.element = element;
+			handles.add(handle);
 			return result;
 		}
 
@@ -406,6 +566,38 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 			return result.process(stack, delta);
 		}
 
+		/**
+		 * Replace the ChangedCommands of all compilation units with BatchCommands, about one per calculator thread and source folder, so that each
+		 * chunk of a folder is parsed with a single binding environment and the chunks keep all workers busy. The batches are pushed on top, so they start before the packages and folders that wait for them. Packages wait for all
+		 * batches of the project, because their afferent coupling needs the dependencies of every compilation unit.
+		 */
+		void batchCompilationUnits() {
+			Map<IPackageFragmentRoot, List<ICompilationUnit>> batches = new LinkedHashMap<IPackageFragmentRoot, List<ICompilationUnit>>();
+			for (Iterator<Command> i = stack.iterator(); i.hasNext();) {
+				Command next = i.next();
+				IJavaElement element = next.getElement();
+				if ((next instanceof ChangedCommand) && (element.getElementType() == IJavaElement.COMPILATION_UNIT)) {
+					IPackageFragmentRoot root = (IPackageFragmentRoot) element.getAncestor(IJavaElement.PACKAGE_FRAGMENT_ROOT);
+					List<ICompilationUnit> units = batches.get(root);
+					if (units == null) {
+						units = new ArrayList<ICompilationUnit>();
+						batches.put(root, units);
+					}
+					units.add((ICompilationUnit) element);
+					i.remove();
+				}
+			}
+			int threads = MetricsPlugin.getCalculatorThreads();
+			for (Map.Entry<IPackageFragmentRoot, List<ICompilationUnit>> batch : batches.entrySet()) {
+				List<ICompilationUnit> units = batch.getValue();
+				int chunkSize = (units.size() + threads - 1) / threads;
+				for (int from = 0, chunk = 0; from < units.size(); from += chunkSize, chunk++) {
+					List<ICompilationUnit> part = units.subList(from, Math.min(from + chunkSize, units.size()));
+					stack.push(new BatchCommand(batch.getKey(), part.toArray(new ICompilationUnit[part.size()]), chunk));
+				}
+			}
+		}
+
 		/**
 		 * Queue commands in UI mode or execute them immediately in headless mode
 		 * 
@@ -422,6 +614,11 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 		 * execute commands in the foreground in headless mode so Ant task waits for completion
 		 */
 		private void executeHeadless() {
+			CalculatorPool workers = getPool();
+			if (workers.getSize() > 1) {
+				executeHeadless(workers);
+				return;
+			}
 			while (stack.size() > 0) {
 				Command next = stack.pop();
 				if (monitor != null) {
@@ -429,10 +626,37 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 				}
 				try {
 					next.execute();
+					if (next.getElement().getElementType() == IJavaElement.JAVA_PROJECT) {
+						clearChanged(next.getHandleIdentifier());
+						Cache.singleton.flush();
+					}
 				} catch (Throwable t) {
 					Log.logError("(headless) error calculating metrics for " + next.getHandleIdentifier(), t);
 				}
 			}
+			Log.logMessage(Cache.singleton.getStatistics());
+		}
+
+		/**
+		 * hand the commands to the worker pool and wait in the foreground until all of them have completed
+		 * 
+		 * @param workers
+		 */
+		private void executeHeadless(CalculatorPool workers) {
+			try {
+				while (stack.size() > 0) {
+					Command next = stack.pop();
+					if (monitor != null) {
+						monitor.subTask("Calculating metrics for " + next.getElement().getElementName());
+					}
+					workers.awaitWorker();
+					workers.submit(next);
+				}
+				workers.awaitIdle();
+				Log.logMessage(Cache.singleton.getStatistics());
+			} catch (InterruptedException e) {
+				Log.logError("(headless) interrupted while calculating metrics", e);
+			}
 		}
 
 		/**
@@ -452,8 +676,8 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 								currentProjects.add(next.getHandleIdentifier());
 							}
 						}
-						if (queue.queue(next)) {
-							count++;
+						if (queue.queue(next, delay)) {
+							count += next.getCount();
 						}
 					}
 					if (count > 0) {
@@ -479,6 +703,7 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 
 		protected IJavaElement element = null;
 		protected Object result = null;
+		protected boolean unchanged = false;
 
 		public Command(IJavaElement element) {
 			this.element = element;
@@ -506,11 +731,41 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 				return element.getHandleIdentifier().equals(o);
 			}
 			if (o instanceof Command) {
-				return element.equals(((Command) o).element);
+				Command other = (Command) o;
+				return element.equals(other.element) && (isBatch() == other.isBatch());
 			}
 			return false;
 		}
 
+		/**
+		 * @return true if this command calculates the compilation units of a whole source folder and notifies the listeners for each of them itself
+		 */
+		public boolean isBatch() {
+			return false;
+		}
+
+		/**
+		 * @return the number of elements this command calculates, as counted by the progress listeners
+		 */
+		public int getCount() {
+			return 1;
+		}
+
+		/**
+		 * @param command
+		 * @return true if this command calculates the element of command or any of its descendants, so that command has to wait for it
+		 */
+		public boolean isPendingFor(Command command) {
+			return getHandleIdentifier().equals(command.getHandleIdentifier()) || HandleIndex.isDescendant(getHandleIdentifier(), command.getHandleIdentifier());
+		}
+
+		/**
+		 * @return the depth of the element in the java model, one of the IJavaElement element types from JAVA_PROJECT to COMPILATION_UNIT
+		 */
+		public int getDepth() {
+			return Math.min(element.getElementType(), IJavaElement.COMPILATION_UNIT);
+		}
+
 		abstract void execute();
 
 		public Object getResult() {
@@ -525,8 +780,16 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 			return null;
 		}
 
+		/**
+		 * @return true if execute() found the cached metrics still valid and did not recalculate them
+		 */
+		public boolean isUnchanged() {
+			return unchanged;
+		}
+
 		public void removeMetricsFromCache() {
 			if (element.getElementType() == IJavaElement.COMPILATION_UNIT) {
+				PackageDependencies.singleton.remove(element.getHandleIdentifier());
 				Cache.singleton.removeSubtree(element.getHandleIdentifier());
 			} else {
 				Cache.singleton.remove(element.getHandleIdentifier());
@@ -546,14 +809,82 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	 */
 	static class ChangedCommand extends Command {
 
+		private CompilationUnit ast = null;
+
 		ChangedCommand(IJavaElement element) {
 			super(element);
 		}
 
+		/**
+		 * @param unit
+		 * @param ast
+		 *            AST of unit parsed with bindings by a BatchCommand
+		 */
+		ChangedCommand(ICompilationUnit unit, CompilationUnit ast) {
+			super(unit);
+			this.ast = ast;
+		}
+
 		@Override
 		void execute() {
-			removeMetricsFromCache();
-			setResult(Dispatcher.calculateAbstractMetricSource(element));
+			AbstractMetricSource cached = getUnchanged();
+			if (cached != null) {
+				unchanged = true;
+				setResult(cached);
+				return;
+			}
+			markChanged(getHandleIdentifier());
+			AbstractMetricSource previous = Cache.singleton.get(element);
+			recordPrevious(element, previous);
+			Map<String, AbstractMetricSource> children = takePreviousChildren(getHandleIdentifier());
+			if ((previous != null) && (children != null) && (element.getElementType() != IJavaElement.COMPILATION_UNIT) && previous.hasCurrentCalculators()) {
+				if (previous.update(children)) {
+					setResult(previous);
+					return;
+				}
+			}
+			// reuse the values of unchanged calculators if only calculators changed
+			boolean reuse = (previous instanceof CompilationUnitMetrics) && ((CompilationUnitMetrics) previous).isSourceUnchanged((ICompilationUnit) element)
+					&& StoredResults.begin((CompilationUnitMetrics) previous);
+			try {
+				removeMetricsFromCache();
+				if (ast != null) {
+					setResult(Dispatcher.calculateAbstractMetricSource((ICompilationUnit) element, ast));
+					ast = null;
+				} else {
+					setResult(Dispatcher.calculateAbstractMetricSource(element));
+				}
+			} finally {
+				if (reuse) {
+					StoredResults.end();
+				}
+			}
+		}
+
+		/**
+		 * A compilation unit is unchanged if its source still has the fingerprint stored with its metrics and its calculators did not change. A package, source folder or project is unchanged if none of its descendants were recalculated, added or removed and its own calculators did not change.
+		 * 
+		 * @return the cached metrics if they are still valid, null otherwise
+		 */
+		private AbstractMetricSource getUnchanged() {
+			switch (element.getElementType()) {
+			case IJavaElement.COMPILATION_UNIT:
+				AbstractMetricSource cached = Cache.singleton.get(element);
+				if ((cached instanceof CompilationUnitMetrics) && ((CompilationUnitMetrics) cached).isUpToDate((ICompilationUnit) element)) {
+					return cached;
+				}
+				return null;
+			case IJavaElement.PACKAGE_FRAGMENT:
+			case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+			case IJavaElement.JAVA_PROJECT:
+				if (hasChangedDescendants(getHandleIdentifier())) {
+					return null;
+				}
+				AbstractMetricSource container = Cache.singleton.get(element);
+				return ((container != null) && container.hasCurrentCalculators()) ? container : null;
+			default:
+				return null;
+			}
 		}
 
 	}
@@ -581,6 +912,9 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 
 		@Override
 		void execute() {
+			markChanged(getHandleIdentifier());
+			recordPrevious(element, Cache.singleton.get(element));
+			takePreviousChildren(getHandleIdentifier());
 			removeMetricsFromCache();
 			setResult(Dispatcher.calculateAbstractMetricSource(element));
 		}
@@ -604,87 +938,313 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 
 		@Override
 		void execute() {
+			markChanged(getHandleIdentifier());
+			recordPrevious(element, Cache.singleton.get(element));
+			takePreviousChildren(getHandleIdentifier());
+			PackageDependencies.singleton.remove(getHandleIdentifier());
+			HandleDictionary.singleton.remove(getHandleIdentifier());
 			removeMetricsFromCache();
 		}
 
 	}
 
-	public static class Queue extends LinkedList<Command> {
+	/**
+	 * BatchCommand parses all compilation units of a source folder with ASTParser.createASTs, so they share one binding environment, and calculates
+	 * each of them as soon as its AST arrives. Large folders are split into chunks, one per calculator thread, so that the chunks are parsed in
+	 * parallel. Only used for full builds.
+	 * 
+	 * @author Frank Sauer
+	 */
+	static class BatchCommand extends Command {
+
+		private ICompilationUnit[] units;
+		private int chunk;
+
+		BatchCommand(IPackageFragmentRoot root, ICompilationUnit[] units, int chunk) {
+			super(root);
+			this.units = units;
+			this.chunk = chunk;
+		}
+
+		/**
+		 * the chunks of the same source folder must not replace each other in the queue
+		 * 
+		 * @return String
+		 */
+		String getKey() {
+			return getHandleIdentifier() + "#batch" + chunk;
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof BatchCommand) && super.equals(o) && (chunk == ((BatchCommand) o).chunk);
+		}
+
+		@Override
+		public boolean isBatch() {
+			return true;
+		}
+
+		@Override
+		public int getCount() {
+			return units.length;
+		}
+
+		/**
+		 * all packages, source folders and the project itself wait for the batch, other batches don't
+		 */
+		@Override
+		public boolean isPendingFor(Command command) {
+			String project = element.getJavaProject().getHandleIdentifier();
+			return !command.isBatch() && (command.getHandleIdentifier().equals(project) || HandleIndex.isDescendant(command.getHandleIdentifier(), project));
+		}
+
+		/**
+		 * the batch calculates compilation units
+		 */
+		@Override
+		public int getDepth() {
+			return IJavaElement.COMPILATION_UNIT;
+		}
+
+		@Override
+		void execute() {
+			final Set<ICompilationUnit> done = new HashSet<ICompilationUnit>();
+			ASTParser parser = ASTParser.newParser(CompilationUnitMetrics.AST_LEVEL);
+			parser.setProject(element.getJavaProject());
+			parser.setResolveBindings(true);
+			try {
+				parser.createASTs(units, new String[0], new ASTRequestor() {
+					@Override
+					public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+						done.add(source);
+						calculateUnit(new ChangedCommand(source, ast));
+					}
+				}, new NullProgressMonitor() {
+					@Override
+					public boolean isCanceled() {
+						return Thread.currentThread().isInterrupted();
+					}
+				});
+			} catch (OperationCanceledException e) {
+				return;
+			} catch (RuntimeException e) {
+				Log.logError("Batch parse failed for " + getHandleIdentifier(), e);
+			}
+			// parse whatever the batch did not deliver one by one
+			for (ICompilationUnit unit : units) {
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				if (!done.contains(unit)) {
+					calculateUnit(new ChangedCommand(unit));
+				}
+			}
+		}
+
+		private void calculateUnit(Command command) {
+			try {
+				calculate(command);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void removeMetricsFromCache() {
+			// each unit removes its own
+		}
+	}
+
+	public static class Queue extends AbstractCollection<Command> {
 
-		private static final long serialVersionUID = 1L;
 		private Semaphore sem = new Semaphore(0);
+		// queued commands by depth in the java model, each in the order they were queued, keyed by getKey()
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private LinkedHashMap<String, Command>[] levels = new LinkedHashMap[IJavaElement.COMPILATION_UNIT + 1];
+		// keys of the queued commands per project handle
+		private Map<String, Set<String>> projects = new HashMap<String, Set<String>>();
+		private int size = 0;
+		private int count = 0;
+		// nothing is dequeued before this time
+		private long releaseAt = 0;
+
+		public Queue() {
+			super();
+			for (int i = 0; i < levels.length; i++) {
+				levels[i] = new LinkedHashMap<String, Command>();
+			}
+		}
+
+		private static String getKey(Command command) {
+			return command.isBatch() ? ((BatchCommand) command).getKey() : command.getHandleIdentifier();
+		}
+
+		private static String getProjectHandle(Command command) {
+			return command.getElement().getJavaProject().getHandleIdentifier();
+		}
 
 		/**
-		 * insert command before its nearest ancestor in the queue if found, otherwise, add to the end. This avoids duplicate work.
+		 * queue the command, or let it replace the command queued for the same element, keeping that command's place. The newer command wins
+		 * because it reflects the latest delta (a removal after a change must not recalculate the removed element, an addition after a removal
+		 * must recalculate it), except that a change never replaces a pending addition, which calculates the element anyway and remembers where it
+		 * was moved from. Commands are dequeued deepest first (compilation units before packages before source folders before projects), so
+		 * descendants always precede their ancestors. Commands of the same depth are dequeued in the order they were queued.
 		 * 
 		 * @param command
+		 * @return false if a command for the same element was already queued
 		 */
 		public boolean queue(Command command) {
+			return queue(command, 0);
+		}
+
+		/**
+		 * queue the command like queue(Command), but hold back all queued commands until no command was queued for the given delay. Rapid changes
+		 * (saving the same file repeatedly) are thus merged into the commands still waiting, and the packages, source folders and projects above
+		 * them are calculated once after the changes stopped instead of once per change.
+		 * 
+		 * @param command
+		 * @param delay
+		 *            milliseconds to wait for more changes
+		 * @return false if the command was already queued
+		 */
+		public boolean queue(Command command, long delay) {
 			synchronized (this) {
-				// skip new command if it is already queued by a previous build
-				if (contains(command)) {
+				if (delay > 0) {
+					releaseAt = Math.max(releaseAt, System.currentTimeMillis() + delay);
+				}
+				String key = getKey(command);
+				Map<String, Command> level = levels[command.getDepth()];
+				// merge the new command into the one queued by a previous build
+				Command queued = level.get(key);
+				if (queued != null) {
+					if (!((command instanceof ChangedCommand) && (queued instanceof AddedCommand))) {
+						level.put(key, command);
+						count += command.getCount() - queued.getCount();
+					}
 					return false;
 				}
-				// insert it before nearest ancestor or at end
-				int ancestor = findAncestorIndex(command);
-				if (ancestor == -1) {
-					addLast(command);
-				} else {
-					add(ancestor, command);
+				level.put(key, command);
+				String project = getProjectHandle(command);
+				Set<String> keys = projects.get(project);
+				if (keys == null) {
+					keys = new HashSet<String>();
+					projects.put(project, keys);
 				}
+				keys.add(key);
+				size++;
+				count += command.getCount();
 			}
 			sem.V();
 			return true;
 		}
 
-		private int findAncestorIndex(Command command) {
-			int ancestor = -1;
-			int index = 0;
-			for (Iterator<Command> i = iterator(); i.hasNext(); index++) {
-				Command next = i.next();
-				if (command.getHandleIdentifier().startsWith(next.getHandleIdentifier())) {
-					ancestor = index;
-					break;
+		/**
+		 * blocks until a command is queued and the delay of the last queued command has passed
+		 * 
+		 * @return the deepest command queued first
+		 * @throws InterruptedException
+		 */
+		public Command dequeue() throws InterruptedException {
+			while (true) {
+				sem.P();
+				synchronized (this) {
+					long wait = releaseAt - System.currentTimeMillis();
+					while ((wait > 0) && (size > 0)) {
+						try {
+							wait(wait);
+						} catch (InterruptedException e) {
+							// the command stays queued for the next thread
+							sem.V();
+							throw e;
+						}
+						wait = releaseAt - System.currentTimeMillis();
+					}
+					for (int i = levels.length - 1; i >= 0; i--) {
+						if (!levels[i].isEmpty()) {
+							Iterator<Command> first = levels[i].values().iterator();
+							Command result = first.next();
+							first.remove();
+							forget(result);
+							return result;
+						}
+					}
+					// cleared or removed while waiting
 				}
 			}
-			return ancestor;
 		}
 
-		public Command dequeue() throws InterruptedException {
-			sem.P();
-			synchronized (this) {
-				return super.removeFirst();
+		private void forget(Command command) {
+			String project = getProjectHandle(command);
+			Set<String> keys = projects.get(project);
+			if (keys != null) {
+				keys.remove(getKey(command));
+				if (keys.isEmpty()) {
+					projects.remove(project);
+				}
 			}
+			size--;
+			count -= command.getCount();
 		}
 
 		@Override
 		public void clear() {
 			sem.reset();
 			synchronized (this) {
-				super.clear();
+				for (Map<String, Command> level : levels) {
+					level.clear();
+				}
+				projects.clear();
+				size = 0;
+				count = 0;
+			}
+		}
+
+		@Override
+		public synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * @return a snapshot of the queued commands in the order they will be dequeued
+		 */
+		@Override
+		public synchronized Iterator<Command> iterator() {
+			List<Command> result = new ArrayList<Command>(size);
+			for (int i = levels.length - 1; i >= 0; i--) {
+				result.addAll(levels[i].values());
 			}
+			return Collections.unmodifiableList(result).iterator();
 		}
 
 		/**
-		 * remove all command with a handle starting with the given projectHandle
+		 * remove all commands for elements of the project with the given handle
 		 * 
 		 * @param projectHandle
+		 * @return the number of elements still queued for other projects, as counted by the progress listeners
 		 */
 		public int removeAll(String projectHandle) {
 			synchronized (this) {
-				//int count = 0;
-				for (Iterator<Command> i = iterator(); i.hasNext();) {
-					Command next = i.next();
-					if (next.getHandleIdentifier().startsWith(projectHandle)) {
-						i.remove();
-						//count++;
+				Set<String> keys = projects.remove(projectHandle);
+				if (keys != null) {
+					for (String key : keys) {
+						for (Map<String, Command> level : levels) {
+							Command next = level.remove(key);
+							if (next != null) {
+								size--;
+								count -= next.getCount();
+								break;
+							}
+						}
 					}
 				}
-				int leftOver = size();
-				// Log.logMessage("Removed " + count + ". still queued: " +
-				// leftOver);
-				sem.reset(leftOver);
-				return leftOver;
+				sem.reset(size);
+				return count;
 			}
 		}
 	}
@@ -696,8 +1256,8 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	 */
 	public static void abort(String projectHandle) {
 		int leftOver = queue.removeAll(projectHandle);
-		if (thread != null) {
-			thread.abort(projectHandle);
+		if (pool != null) {
+			pool.abort(projectHandle);
 		}
 		IJavaProject p = (IJavaProject) JavaCore.create(projectHandle);
 		notifier.fireProjectCompleted(p, true);
@@ -712,12 +1272,12 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 	 * kill all ongoing calculations and remove pending ones from the queue.
 	 */
 	public static void abortAll() {
+		queue.clear();
 		for (Object element : currentProjects) {
-			if (thread != null) {
-				thread.abort((String) element);
+			if (pool != null) {
+				pool.abort((String) element);
 			}
 		}
-		queue.clear();
 		notifier.fireProjectCompleted(null, true);
 		currentProjects.clear();
 	}
@@ -730,35 +1290,161 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 
 	public static void pause() {
 		startCalculatorThread(); // make sure we have one to pause
-		if (thread != null) {
-			thread.pause(true);
-		}
+		paused = true;
 	}
 
 	public static void resume() {
-		if (thread != null) {
-			thread.pause(false);
+		paused = false;
+		synchronized (Pause) {
+			Pause.notifyAll();
 		}
 	}
 
 	public static boolean canPause() {
-		return thread == null || !thread.paused;
+		return thread == null || !paused;
 	}
 
 	public static boolean canResume() {
-		return thread != null && thread.paused;
+		return thread != null && paused;
 	}
 
 	public static boolean canAbort() {
-		return thread != null && queue.size() > 0;
+		return thread != null && (queue.size() > 0 || (pool != null && pool.isBusy()));
 	}
 
 	private static Object Pause = new Object(); // pause/resume semaphore
 
-	public static class CalculatorThread extends Thread {
+	/**
+	 * blocks the calling thread as long as calculations are paused
+	 * 
+	 * @throws InterruptedException
+	 */
+	private static void waitWhilePaused() throws InterruptedException {
+		synchronized (Pause) {
+			while (paused) {
+				Pause.wait();
+			}
+		}
+	}
 
-		private Command current;
-		private boolean paused = false;
+	private static void markChanged(String handle) {
+		synchronized (changedHandles) {
+			changedHandles.add(handle);
+		}
+	}
+
+	/**
+	 * Remember the metrics the parent of element was calculated with, so the parent can replace them by the new ones instead of loading all its
+	 * children. Only the first change since the parent was calculated counts. Keeps a copy, because the cached instance may be updated itself.
+	 * 
+	 * @param element
+	 * @param previous
+	 *            cached metrics of element, null if there are none (e.g. element was added)
+	 */
+	private static void recordPrevious(IJavaElement element, AbstractMetricSource previous) {
+		IJavaElement parent = element.getParent();
+		if ((parent == null) || (element.getElementType() == IJavaElement.JAVA_PROJECT)) {
+			return;
+		}
+		synchronized (previousChildren) {
+			Map<String, AbstractMetricSource> children = previousChildren.get(parent.getHandleIdentifier());
+			if (children == null) {
+				children = new HashMap<String, AbstractMetricSource>();
+				previousChildren.put(parent.getHandleIdentifier(), children);
+			}
+			String handle = element.getHandleIdentifier();
+			if (!children.containsKey(handle)) {
+				children.put(handle, (previous == null) ? null : previous.copy());
+			}
+		}
+	}
+
+	/**
+	 * @param handle
+	 * @return the changed children of handle recorded since it was last calculated, null if there are none
+	 */
+	private static Map<String, AbstractMetricSource> takePreviousChildren(String handle) {
+		synchronized (previousChildren) {
+			return previousChildren.remove(handle);
+		}
+	}
+
+	private static boolean hasChangedDescendants(String handle) {
+		synchronized (changedHandles) {
+			for (String next : changedHandles) {
+				if (HandleIndex.isDescendant(next, handle)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static void clearChanged(String projectHandle) {
+		synchronized (changedHandles) {
+			for (Iterator<String> i = changedHandles.iterator(); i.hasNext();) {
+				String next = i.next();
+				if (next.equals(projectHandle) || HandleIndex.isDescendant(next, projectHandle)) {
+					i.remove();
+				}
+			}
+		}
+		synchronized (previousChildren) {
+			for (Iterator<String> i = previousChildren.keySet().iterator(); i.hasNext();) {
+				String next = i.next();
+				if (next.equals(projectHandle) || HandleIndex.isDescendant(next, projectHandle)) {
+					i.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Execute a single command on the current (worker) thread and notify the progress listeners. Does nothing but wait while calculations are paused.
+	 * 
+	 * @param command
+	 * @throws InterruptedException
+	 */
+	static void calculate(Command command) throws InterruptedException {
+		waitWhilePaused();
+		if (Thread.currentThread().isInterrupted()) {
+			return;
+		}
+		if (command.isBatch()) {
+			// notifies for each of its compilation units
+			command.execute();
+			return;
+		}
+		IJavaElement currentElm = command.getElement();
+		// Log.logMessage("Executing " +
+		// command.getHandleIdentifier());
+		notifier.firePending(currentElm);
+		command.execute();
+		// only notify if we weren't aborted
+		if (!Thread.currentThread().isInterrupted()) {
+			if (command.getMovedFrom() != null) {
+				notifier.fireMoved(currentElm, command.getMovedFrom());
+			}
+			if (command.isUnchanged()) {
+				notifier.fireUnchanged(currentElm, command.getResult());
+			} else {
+				notifier.fireCompleted(currentElm, command.getResult());
+			}
+			if (currentElm.getElementType() == IJavaElement.JAVA_PROJECT) {
+				synchronized (currentProjects) {
+					currentProjects.remove(currentElm.getHandleIdentifier());
+				}
+				clearChanged(currentElm.getHandleIdentifier());
+				Cache.singleton.flush();
+				notifier.fireProjectCompleted((IJavaProject) currentElm, false);
+			}
+		}
+	}
+
+	/**
+	 * Takes commands off the queue and hands them to the worker pool as soon as a worker is available.
+	 */
+	public static class CalculatorThread extends Thread {
 
 		public CalculatorThread() {
 			super("Metrics Calculator Thread");
@@ -770,27 +1456,12 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 				// Log.logMessage("New Calculator Thread is born...");
 				while (thread == Thread.currentThread()) {
 					checkPaused();
-					current = queue.dequeue(); // blocks!
+					CalculatorPool workers = getPool();
+					workers.awaitWorker(); // blocks!
+					Command current = queue.dequeue(); // blocks!
 					checkPaused();
 					if (!Thread.currentThread().isInterrupted()) {
-						IJavaElement currentElm = current.getElement();
-						// Log.logMessage("Executing " +
-						// current.getHandleIdentifier());
-						notifier.firePending(currentElm);
-						current.execute();
-						// only notify if we weren't aborted
-						if (!Thread.currentThread().isInterrupted()) {
-							if (current.getMovedFrom() != null) {
-								notifier.fireMoved(currentElm, current.getMovedFrom());
-							}
-							notifier.fireCompleted(currentElm, current.getResult());
-							if (currentElm.getElementType() == IJavaElement.JAVA_PROJECT) {
-								synchronized (currentProjects) {
-									currentProjects.remove(currentElm.getHandleIdentifier());
-								}
-								notifier.fireProjectCompleted((IJavaProject) currentElm, false);
-							}
-						}
+						workers.submit(current);
 					}
 				}
 			} catch (InterruptedException e) {
@@ -807,30 +1478,7 @@ public class MetricsBuilder extends IncrementalProjectBuilder {
 			if (paused) {
 				notifier.firePaused();
 			}
-			synchronized (Pause) {
-				while (paused) {
-					Pause.wait();
-				}
-			}
-		}
-
-		public void pause(boolean pause) {
-			paused = pause;
-			if (!paused) {
-				synchronized (Pause) {
-					Pause.notify();
-				}
-			}
-		}
-
-		public void abort(String projectHandle) {
-			if (current == null) {
-				return;
-			}
-			if (current.getHandleIdentifier().startsWith(projectHandle)) {
-				// Log.logMessage("Going to interrrupt current calculation.");
-				interrupt();
-			}
+			waitWhilePaused();
 		}
 	}
 
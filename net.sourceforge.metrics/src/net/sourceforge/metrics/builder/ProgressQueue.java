@@ -85,6 +85,10 @@ public class ProgressQueue extends LinkedList<ProgressQueueCommand> {
 		queue(new CompletedCommand(element, data));
 	}
 
+	public void fireUnchanged(IJavaElement element, Object data) {
+		queue(new UnchangedCommand(element, data));
+	}
+
 	public void fireProjectCompleted(IJavaProject project, boolean aborted) {
 		if (aborted) {
 			clear();
@@ -204,6 +208,29 @@ public class ProgressQueue extends LinkedList<ProgressQueueCommand> {
 		}
 	}
 
+	private class UnchangedCommand extends ProgressQueueCommand {
+
+		private Object data;
+
+		private IJavaElement element;
+
+		UnchangedCommand(IJavaElement element, Object data) {
+			this.element = element;
+			this.data = data;
+		}
+
+		@Override
+		void execute() {
+			for (IMetricsProgressListener next : listeners) {
+				if (next instanceof IMetricsProgressListener2) {
+					((IMetricsProgressListener2) next).unchanged(element, data);
+				} else {
+					next.completed(element, data);
+				}
+			}
+		}
+	}
+
 	private class MovedCommand extends ProgressQueueCommand {
 
 		private IPath path;
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.calculators;
+
+import java.util.List;
+
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.Log;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+
+/**
+ * Walks a MethodDeclaration once and feeds every node to the visitors of all IFusedCalculators, instead of having each calculator walk the method
+ * itself. A visitor returning false from visit only prunes the subtree for that visitor, the others still see it. A visitor that throws is logged and
+ * dropped without affecting the others.
+ * 
+ * @author Frank Sauer
+ */
+public class FusedMethodVisitor extends ASTVisitor {
+
+	private final IFusedCalculator[] calculators;
+	private final MethodBodyVisitor[] visitors;
+	/** node whose subtree visitors[i] asked to skip, null if visitors[i] is not pruned */
+	private final ASTNode[] pruned;
+	private final boolean[] failed;
+	private final AbstractMetricSource source;
+
+	private FusedMethodVisitor(AbstractMetricSource source, List<? extends IFusedCalculator> calculators) {
+		this.source = source;
+		this.calculators = calculators.toArray(new IFusedCalculator[calculators.size()]);
+		visitors = new MethodBodyVisitor[this.calculators.length];
+		pruned = new ASTNode[visitors.length];
+		failed = new boolean[visitors.length];
+		for (int i = 0; i < visitors.length; i++) {
+			try {
+				visitors[i] = this.calculators[i].createVisitor(source);
+			} catch (RuntimeException e) {
+				fail(i, e);
+			}
+		}
+	}
+
+	/**
+	 * Calculate all given calculators for the method in a single traversal of its MethodDeclaration
+	 * 
+	 * @param source
+	 *            a method source
+	 * @param calculators
+	 * @throws InvalidSourceException
+	 *             if source is not a method
+	 */
+	public static void calculate(AbstractMetricSource source, List<? extends IFusedCalculator> calculators) throws InvalidSourceException {
+		if (source.getLevel() != Constants.METHOD) {
+			throw new InvalidSourceException("Fused calculators only applicable to methods");
+		}
+		MethodDeclaration astNode = (MethodDeclaration) source.getASTNode();
+		if (astNode == null) {
+			for (IFusedCalculator c : calculators) {
+				source.setValue(new Metric(c.getName(), 0));
+			}
+			return;
+		}
+		FusedMethodVisitor fused = new FusedMethodVisitor(source, calculators);
+		astNode.accept(fused);
+		fused.store();
+	}
+
+	@Override
+	public boolean preVisit2(ASTNode node) {
+		boolean descend = false;
+		for (int i = 0; i < visitors.length; i++) {
+			if (pruned[i] == null && !failed[i]) {
+				try {
+					if (visitors[i].visit(node)) {
+						descend = true;
+					} else {
+						pruned[i] = node;
+					}
+				} catch (RuntimeException e) {
+					fail(i, e);
+				}
+			}
+		}
+		return descend;
+	}
+
+	@Override
+	public void postVisit(ASTNode node) {
+		for (int i = 0; i < visitors.length; i++) {
+			if (failed[i] || (pruned[i] != null && pruned[i] != node)) {
+				continue;
+			}
+			pruned[i] = null;
+			try {
+				visitors[i].endVisit(node);
+			} catch (RuntimeException e) {
+				fail(i, e);
+			}
+		}
+	}
+
+	private void store() {
+		for (int i = 0; i < visitors.length; i++) {
+			if (!failed[i]) {
+				try {
+					visitors[i].store(source);
+				} catch (RuntimeException e) {
+					fail(i, e);
+				}
+			}
+		}
+	}
+
+	private void fail(int i, RuntimeException e) {
+		failed[i] = true;
+		Log.logError("Error running " + calculators[i].getName() + " for " + source.getHandle(), e);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.calculators;
+
+import net.sourceforge.metrics.core.ICalculator;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+
+/**
+ * Method level calculators that only need to walk the MethodDeclaration can implement this interface to take part in the single traversal shared by all
+ * such calculators (see FusedMethodVisitor). Calculators contributed through the net.sourceforge.metrics.metrics extension point join that traversal
+ * simply by implementing it, all other calculators are still invoked one by one.
+ * 
+ * @author Frank Sauer
+ * @see FusedMethodVisitor
+ */
+public interface IFusedCalculator extends ICalculator {
+
+	/**
+	 * Create the visitor that collects this calculator's value for one method. A new visitor is created for every method, so it can keep its state in
+	 * fields.
+	 * 
+	 * @param source
+	 *            the method being calculated
+	 * @return MethodBodyVisitor
+	 */
+	MethodBodyVisitor createVisitor(AbstractMetricSource source);
+}
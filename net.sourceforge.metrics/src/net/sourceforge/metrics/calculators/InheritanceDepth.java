@@ -27,7 +27,6 @@ import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 import net.sourceforge.metrics.core.sources.TypeMetrics;
 
 import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 
 /**
  * Calculates Depth of Inheritance Tree, Number of Children and sets superclasses to either 0 or 1 (if the source has subclasses)
@@ -52,10 +51,8 @@ public class InheritanceDepth extends Calculator implements Constants {
 			throw new InvalidSourceException("InheritanceDepth only applicable to types");
 		}
 		TypeMetrics tm = (TypeMetrics) source;
-		IType iType = (IType) source.getJavaElement();
-		ITypeHierarchy hierarchy = tm.getHierarchy();
-		IType[] supers = hierarchy.getAllSuperclasses(iType);
-		IType[] subs = hierarchy.getSubtypes(iType); // BUG #933209
+		IType[] supers = tm.getAllSuperclasses();
+		IType[] subs = tm.getSubtypes(); // BUG #933209
 		source.setValue(new Metric(INHERITANCE_DEPTH, supers.length));
 		source.setValue(new Metric(SUBCLASSES, subs.length));
 	}
@@ -23,6 +23,7 @@ package net.sourceforge.metrics.calculators;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
 import net.sourceforge.metrics.core.Constants;
@@ -50,7 +51,6 @@ import org.eclipse.jface.util.PropertyChangeEvent;
  */
 public class LackOfCohesion extends Calculator implements Constants {
 
-	private HashMap<String, Set<String>> buckets = new HashMap<String, Set<String>>();
 	private static Preferences prefs;
 
 	/**
@@ -62,7 +62,7 @@ public class LackOfCohesion extends Calculator implements Constants {
 		super(LCOM);
 	}
 
-	private void add(String field, String method) {
+	private void add(Map<String, Set<String>> buckets, String field, String method) {
 		if (buckets.containsKey(field)) {
 			Set<String> methods = buckets.get(field);
 			methods.add(method);
@@ -83,10 +83,10 @@ public class LackOfCohesion extends Calculator implements Constants {
 			IField[] fields = type.getFields();
 			double value = 0;
 			if ((fields.length > 1) && (methods.length > 1)) {
-				initBuckets(fields);
+				Map<String, Set<String>> buckets = initBuckets(fields);
 				if (buckets.size() > 0) {
-					visitMethods(methods);
-					value = calculateResult();
+					visitMethods(buckets, methods);
+					value = calculateResult(buckets);
 				}
 			}
 			source.setValue(new Metric(LCOM, value));
@@ -97,7 +97,7 @@ public class LackOfCohesion extends Calculator implements Constants {
 	/**
 	 * @return double (avg(m(a)) - m)/(1 - m) where m(a) is the number of methods that access a
 	 */
-	private double calculateResult() {
+	private double calculateResult(Map<String, Set<String>> buckets) {
 		int sum = 0;
 		int a = 0;
 		Set<String> allMethods = new HashSet<String>();
@@ -114,7 +114,7 @@ public class LackOfCohesion extends Calculator implements Constants {
 		return Math.abs((avg - m) / (1 - m));
 	}
 
-	private void visitMethods(IMethod[] methods) {
+	private void visitMethods(Map<String, Set<String>> buckets, IMethod[] methods) {
 		boolean countStatics = getPrefs().countStaticMethods();
 		for (IMethod method2 : methods) {
 			String methodName = method2.getElementName();
@@ -128,7 +128,7 @@ public class LackOfCohesion extends Calculator implements Constants {
 							break;
 						}
 						if (token == ITerminalSymbols.TokenNameIdentifier) {
-							add(new String(s.getCurrentTokenSource()), methodName);
+							add(buckets, new String(s.getCurrentTokenSource()), methodName);
 						}
 					}
 				}
@@ -141,12 +141,13 @@ public class LackOfCohesion extends Calculator implements Constants {
 	}
 
 	/**
-	 * create a map of HashSets to store methods for each attribute. Ask preferences whether static attributes have to be considered
+	 * create a map of HashSets to store methods for each attribute. Ask preferences whether static attributes have to be considered. A new map is created for every type so concurrent calculations do not share it (BUG #867594)
 	 * 
 	 * @param fields
+	 * @return map of attribute name to the names of the methods using it
 	 */
-	private void initBuckets(IField[] fields) {
-		buckets.clear(); // BUG #867594
+	private Map<String, Set<String>> initBuckets(IField[] fields) {
+		Map<String, Set<String>> buckets = new HashMap<String, Set<String>>();
 		try {
 			boolean countStatics = getPrefs().countStaticAttributes();
 			for (IField field : fields) {
@@ -156,6 +157,7 @@ public class LackOfCohesion extends Calculator implements Constants {
 			}
 		} catch (JavaModelException e) {
 		}
+		return buckets;
 	}
 
 	/**
@@ -163,8 +165,9 @@ public class LackOfCohesion extends Calculator implements Constants {
 	 */
 	public static class Preferences implements IPropertyChangeListener {
 
-		private boolean countStaticMethods;
-		private boolean countStaticAttributes;
+		// written by the preference listener, read by the calculating threads
+		private volatile boolean countStaticMethods;
+		private volatile boolean countStaticAttributes;
 
 		public Preferences() {
 			init();
@@ -199,7 +202,7 @@ public class LackOfCohesion extends Calculator implements Constants {
 	 * 
 	 * @return Preferences
 	 */
-	public static Preferences getPrefs() {
+	public static synchronized Preferences getPrefs() {
 		if (prefs == null) {
 			prefs = new Preferences();
 		}
@@ -20,37 +20,22 @@
  */
 package net.sourceforge.metrics.calculators;
 
+import java.util.Collections;
+
 import net.sourceforge.metrics.core.Constants;
-import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.Metric;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
-import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.jdt.core.dom.ASTVisitor;
-import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
-import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
-import org.eclipse.jdt.core.dom.Block;
-import org.eclipse.jdt.core.dom.CatchClause;
-import org.eclipse.jdt.core.dom.ConditionalExpression;
-import org.eclipse.jdt.core.dom.DoStatement;
-import org.eclipse.jdt.core.dom.EnhancedForStatement;
-import org.eclipse.jdt.core.dom.EnumDeclaration;
-import org.eclipse.jdt.core.dom.Expression;
-import org.eclipse.jdt.core.dom.ExpressionStatement;
-import org.eclipse.jdt.core.dom.ForStatement;
-import org.eclipse.jdt.core.dom.IfStatement;
-import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.InfixExpression;
 import org.eclipse.jdt.core.dom.SwitchCase;
-import org.eclipse.jdt.core.dom.TypeDeclaration;
-import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
-import org.eclipse.jdt.core.dom.WhileStatement;
 
 /**
- * Calculate McCabe Cyclomatic Complexity for a method. This counts the number of if, while, for, case, do, catch, and ?: occurences plus one.
+ * Calculate McCabe Cyclomatic Complexity for a method. This counts the number of if, while, for, case, do, catch, ?:, && and || occurences plus one.
  * 
  * @author Frank Sauer
  */
-public class McCabe extends Calculator implements Constants {
+public class McCabe extends Calculator implements IFusedCalculator, Constants {
 
 	/**
 	 * Constructor for McCabe.
@@ -67,142 +52,68 @@ public class McCabe extends Calculator implements Constants {
 		if (source.getLevel() != METHOD) {
 			throw new InvalidSourceException("McCabe only applicable to methods");
 		}
-		MethodDeclaration astNode = (MethodDeclaration) source.getASTNode();
-		if (astNode == null) {
-			source.setValue(getZero());
-		}
-		Block body = astNode.getBody();
-		if (body == null) {
-			source.setValue(getZero());
-		}
-		String sourceCode = null;
-		try {
-			sourceCode = source.getCompilationUnit().getSource();
-		} catch (JavaModelException e) {
-			Log.logError("No sourcecode for " + source.getHandle(), e);
-		}
-		McCabeVisitor mcb = new McCabeVisitor(sourceCode);
-		astNode.accept(mcb);
-		source.setValue(new Metric(getName(), mcb.cyclomatic));
+		FusedMethodVisitor.calculate(source, Collections.singletonList(this));
 	}
 
-	private class McCabeVisitor extends ASTVisitor {
-
-		private int cyclomatic = 1;
-		private String source;
-
-		McCabeVisitor(String source) {
-			this.source = source;
-		}
-
-		// McCabe CC is computed as method level. there fore while parsing code
-		// if we found TypeDeclaration, AnnotationTypeDeclaration,
-		// EnumDeclaration or AnonymousClassDeclaration
-		@Override
-		public boolean visit(AnonymousClassDeclaration node) {
-			return false; // XXX
-		}
-
-		@Override
-		public boolean visit(TypeDeclaration node) {
-			return false; // XXX same as above
-		}
-
-		@Override
-		public boolean visit(AnnotationTypeDeclaration node) {
-			return false; // XXX same as above
-		}
-
-		@Override
-		public boolean visit(EnumDeclaration node) {
-			return false; // XXX same as above
-		}
-
-		@Override
-		public boolean visit(CatchClause node) {
-			cyclomatic++;
-			return true;
-		}
-
-		@Override
-		public boolean visit(ConditionalExpression node) {
-			cyclomatic++;
-			inspectExpression(node.getExpression());
-			return true;
-		}
-
-		@Override
-		public boolean visit(DoStatement node) {
-			cyclomatic++;
-			inspectExpression(node.getExpression());
-			return true;
-		}
-
-		@Override
-		public boolean visit(EnhancedForStatement node) {
-			cyclomatic++;
-			inspectExpression(node.getExpression());
-			return true;
-		}
+	/**
+	 * @see net.sourceforge.metrics.calculators.IFusedCalculator#createVisitor(net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	public MethodBodyVisitor createVisitor(AbstractMetricSource source) {
+		return new McCabeVisitor();
+	}
 
-		@Override
-		public boolean visit(ForStatement node) {
-			cyclomatic++;
-			inspectExpression(node.getExpression());
-			return true;
-		}
+	private class McCabeVisitor extends MethodBodyVisitor {
 
-		@Override
-		public boolean visit(IfStatement node) {
-			cyclomatic++;
-			inspectExpression(node.getExpression());
-			return true;
-		}
+		private int cyclomatic = 1;
 
 		@Override
-		public boolean visit(SwitchCase node) {
-			if (!node.isDefault()) {
+		public boolean visit(ASTNode node) {
+			switch (node.getNodeType()) {
+			// McCabe CC is computed as method level. there fore while parsing code
+			// if we found TypeDeclaration, AnnotationTypeDeclaration,
+			// EnumDeclaration or AnonymousClassDeclaration
+			case ASTNode.ANONYMOUS_CLASS_DECLARATION:
+			case ASTNode.TYPE_DECLARATION:
+			case ASTNode.ANNOTATION_TYPE_DECLARATION:
+			case ASTNode.ENUM_DECLARATION:
+				return false; // XXX
+			case ASTNode.CATCH_CLAUSE:
+			case ASTNode.CONDITIONAL_EXPRESSION:
+			case ASTNode.DO_STATEMENT:
+			case ASTNode.ENHANCED_FOR_STATEMENT:
+			case ASTNode.FOR_STATEMENT:
+			case ASTNode.IF_STATEMENT:
+			case ASTNode.WHILE_STATEMENT:
 				cyclomatic++;
+				return true;
+			case ASTNode.SWITCH_CASE:
+				if (!((SwitchCase) node).isDefault()) {
+					cyclomatic++;
+				}
+				return true;
+			case ASTNode.INFIX_EXPRESSION:
+				inspectExpression((InfixExpression) node);
+				return true;
+			default:
+				return true;
 			}
-			return true;
-		}
-
-		@Override
-		public boolean visit(WhileStatement node) {
-			cyclomatic++;
-			inspectExpression(node.getExpression());
-			return true;
-		}
-
-		@Override
-		public boolean visit(ExpressionStatement node) {
-			inspectExpression(node.getExpression());
-			return false;
 		}
 
 		@Override
-		public boolean visit(VariableDeclarationFragment node) {
-			inspectExpression(node.getInitializer());
-			return true;
+		public void store(AbstractMetricSource metricSource) {
+			metricSource.setValue(new Metric(getName(), cyclomatic));
 		}
 
 		/**
-		 * Count occurrences of && and || (conditional and or) Fix for BUG 740253
+		 * Count occurrences of && and || (conditional and or) Fix for BUG 740253. a && b && c may be a single InfixExpression with an extended operand
+		 * or two nested ones, both count 2.
 		 * 
 		 * @param ex
 		 */
-		private void inspectExpression(Expression ex) {
-			if ((ex != null) && (source != null)) {
-				int start = ex.getStartPosition();
-				int end = start + ex.getLength();
-				String expression = source.substring(start, end);
-				char[] chars = expression.toCharArray();
-				for (int i = 0; i < chars.length - 1; i++) {
-					char next = chars[i];
-					if ((next == '&' || next == '|') && (next == chars[i + 1])) {
-						cyclomatic++;
-					}
-				}
+		private void inspectExpression(InfixExpression ex) {
+			InfixExpression.Operator op = ex.getOperator();
+			if (op == InfixExpression.Operator.CONDITIONAL_AND || op == InfixExpression.Operator.CONDITIONAL_OR) {
+				cyclomatic += 1 + ex.extendedOperands().size();
 			}
 		}
 	}
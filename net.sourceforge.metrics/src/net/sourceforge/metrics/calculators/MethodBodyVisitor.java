@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.calculators;
+
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+/**
+ * Per method state of an IFusedCalculator. visit and endVisit follow the ASTVisitor contract (endVisit is called for every visited node, also when visit
+ * returned false) but receive the generic ASTNode, use ASTNode.getNodeType() to dispatch.
+ * 
+ * @author Frank Sauer
+ * @see IFusedCalculator
+ */
+public abstract class MethodBodyVisitor {
+
+	/**
+	 * @param node
+	 * @return true to visit the children of node, false to skip them for this visitor only
+	 */
+	public boolean visit(ASTNode node) {
+		return true;
+	}
+
+	/**
+	 * @param node
+	 */
+	public void endVisit(ASTNode node) {
+	}
+
+	/**
+	 * Called once the whole method has been visited to set the metric(s) on the source.
+	 * 
+	 * @param source
+	 */
+	public abstract void store(AbstractMetricSource source);
+}
@@ -20,20 +20,20 @@
  */
 package net.sourceforge.metrics.calculators;
 
+import java.util.Collections;
+
 import net.sourceforge.metrics.core.Constants;
 import net.sourceforge.metrics.core.Metric;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
-import org.eclipse.jdt.core.dom.ASTVisitor;
-import org.eclipse.jdt.core.dom.Block;
-import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.ASTNode;
 
 /**
  * Calculate max nested block depth for a method
  * 
  * @author Frank Sauer
  */
-public class NestedBlockDepth extends Calculator implements Constants {
+public class NestedBlockDepth extends Calculator implements IFusedCalculator, Constants {
 
 	/**
 	 * Constructor for NestedBlockDepth.
@@ -50,39 +50,45 @@ public class NestedBlockDepth extends Calculator implements Constants {
 		if (source.getLevel() != METHOD) {
 			throw new InvalidSourceException("NestedBlockDepth only applicable to methods");
 		}
-		MethodDeclaration astNode = (MethodDeclaration) source.getASTNode();
-		if (astNode == null) {
-			source.setValue(getZero());
-		}
-		Block body = astNode.getBody();
-		if (body == null) {
-			source.setValue(getZero());
-		}
-		LevelCounter lc = new LevelCounter();
-		astNode.accept(lc);
-		source.setValue(new Metric(getName(), lc.maxDepth));
+		FusedMethodVisitor.calculate(source, Collections.singletonList(this));
+	}
+
+	/**
+	 * @see net.sourceforge.metrics.calculators.IFusedCalculator#createVisitor(net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	public MethodBodyVisitor createVisitor(AbstractMetricSource source) {
+		return new LevelCounter();
 	}
 
 	/**
 	 * counts the maximum block depth by visiting Blocks
 	 */
-	private class LevelCounter extends ASTVisitor {
+	private class LevelCounter extends MethodBodyVisitor {
 
 		int maxDepth = 0;
 		int depth = 0;
 
 		@Override
-		public boolean visit(Block node) {
-			depth++;
+		public boolean visit(ASTNode node) {
+			if (node.getNodeType() == ASTNode.BLOCK) {
+				depth++;
+			}
 			return true;
 		}
 
 		@Override
-		public void endVisit(Block node) {
-			if (depth > maxDepth) {
-				maxDepth = depth;
+		public void endVisit(ASTNode node) {
+			if (node.getNodeType() == ASTNode.BLOCK) {
+				if (depth > maxDepth) {
+					maxDepth = depth;
+				}
+				depth--;
 			}
-			depth--;
+		}
+
+		@Override
+		public void store(AbstractMetricSource source) {
+			source.setValue(new Metric(getName(), maxDepth));
 		}
 
 	}
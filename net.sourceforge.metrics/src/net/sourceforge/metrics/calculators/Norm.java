@@ -31,7 +31,6 @@ import net.sourceforge.metrics.core.sources.TypeMetrics;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -62,8 +61,7 @@ public class Norm extends Calculator implements Constants {
 	public void calculate(AbstractMetricSource source) {
 		TypeMetrics tm = (TypeMetrics) source;
 		IType iType = (IType) source.getJavaElement();
-		ITypeHierarchy hierarchy = tm.getHierarchy();
-		IType[] supers = hierarchy.getAllSuperclasses(iType);
+		IType[] supers = tm.getAllSuperclasses();
 		try {
 			int overridden = 0;
 			IMethod[] myMethods = iType.getMethods();
@@ -140,9 +138,10 @@ public class Norm extends Calculator implements Constants {
 	 */
 	public static class Preferences implements IPropertyChangeListener {
 
-		private boolean countAbstract;
-		private boolean supers;
-		private String excludes;
+		// written by the preference listener, read by the calculating threads
+		private volatile boolean countAbstract;
+		private volatile boolean supers;
+		private volatile String excludes;
 
 		public Preferences() {
 			init();
@@ -187,7 +186,7 @@ public class Norm extends Calculator implements Constants {
 	 * 
 	 * @return Preferences
 	 */
-	public static Preferences getPrefs() {
+	public static synchronized Preferences getPrefs() {
 		if (prefs == null) {
 			prefs = new Preferences();
 		}
@@ -33,7 +33,6 @@ import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.internal.corext.codemanipulation.GetterSetterUtil;
 import org.eclipse.jdt.internal.corext.refactoring.Checks;
@@ -125,10 +124,7 @@ public class NumberOfInheritedMethods extends Calculator implements Constants {
 
 	private IType[] getSuperClasses(AbstractMetricSource source) {
 		TypeMetrics tm = (TypeMetrics) source;
-		IType iType = (IType) source.getJavaElement();
-		ITypeHierarchy hierarchy = tm.getHierarchy();
-		IType[] supers = hierarchy.getAllSuperclasses(iType);
-		return supers;
+		return tm.getAllSuperclasses();
 	}
 
 	/**
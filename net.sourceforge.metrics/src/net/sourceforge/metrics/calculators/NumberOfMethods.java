@@ -31,7 +31,6 @@ import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.internal.corext.codemanipulation.GetterSetterUtil;
 import org.eclipse.jdt.internal.corext.refactoring.Checks;
@@ -96,7 +95,7 @@ public class NumberOfMethods extends Calculator implements Constants {
 					
 				}
 				TypeMetrics tm =(TypeMetrics)source;				
-				if(!tipo.isInterface() && isPolymorphic(method, tm.getHierarchy()))
+				if(!tipo.isInterface() && isPolymorphic(method, tm.getAllSubtypes()))
 					poly++;
 				if((method.getFlags() & Flags.AccPublic) != 0)
 					publ++;
@@ -115,8 +114,8 @@ public class NumberOfMethods extends Calculator implements Constants {
 		}
 	}
 	
-	private boolean isPolymorphic(IMethod method, ITypeHierarchy hierarchy) throws JavaModelException{
-		for(IType subType:hierarchy.getAllSubtypes(hierarchy.getType())){
+	private boolean isPolymorphic(IMethod method, IType[] subTypes) throws JavaModelException{
+		for(IType subType:subTypes){
 			IMethod found = Checks.findMethod(method, subType);
 			if(found!=null)
 				return true;
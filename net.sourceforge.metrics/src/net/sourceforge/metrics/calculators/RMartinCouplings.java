@@ -20,37 +20,30 @@
  */
 package net.sourceforge.metrics.calculators;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.Metric;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.core.sources.HandleDictionary;
+import net.sourceforge.metrics.core.sources.PackageDependencies;
 import net.sourceforge.metrics.core.sources.PackageFragmentMetrics;
 
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IPackageFragment;
-import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.jdt.core.search.IJavaSearchConstants;
-import org.eclipse.jdt.core.search.IJavaSearchScope;
-import org.eclipse.jdt.core.search.SearchEngine;
-import org.eclipse.jdt.core.search.SearchMatch;
-import org.eclipse.jdt.core.search.SearchParticipant;
-import org.eclipse.jdt.core.search.SearchPattern;
-import org.eclipse.jdt.core.search.SearchRequestor;
 
 /**
- * Calculates the Robert Martin Coupling metrics (Ca, Ce, I, A and Dn);
+ * Calculates the Robert Martin Coupling metrics (Ca, Ce, I, A and Dn); Ca and Ce are derived from the PackageDependencies graph that is recorded
+ * while the compilation units are calculated.
  * 
  * @author Frank Sauer
  */
@@ -148,8 +141,8 @@ public class RMartinCouplings extends Calculator {
 	}
 
 	/**
-	 * Find all classes outside the given package that depend on things inside this package Note that nothing outside the default package can depend on things inside it, so the entire calculation is skipped. Not doing so causes a problem in
-	 * 3.0M4; the search engine barfs on the search for some reason.
+	 * Count the compilation units outside the given package that reference types inside this package. Nothing outside the default package can depend
+	 * on things inside it, so the entire calculation is skipped.
 	 * 
 	 * @param source
 	 * @return Ca Metric
@@ -157,20 +150,8 @@ public class RMartinCouplings extends Calculator {
 	private Metric calculateAfferentCoupling(PackageFragmentMetrics source) {
 		IPackageFragment pf = (IPackageFragment) source.getJavaElement();
 		if (!pf.isDefaultPackage()) {
-			try {
-				SearchPattern pattern = SearchPattern.createPattern(source.getJavaElement(), IJavaSearchConstants.REFERENCES);
-				// IJavaSearchScope scope = SearchEngine.createWorkspaceScope();
-				IJavaSearchScope scope = createProjectSearchScope(source.getJavaElement());
-				SearchEngine searchEngine = new SearchEngine();
-				AfferentCollector c = new AfferentCollector(source);
-				// searchEngine.search(ResourcesPlugin.getWorkspace(), pattern,
-				// scope, c);
-				searchEngine.search(pattern, new SearchParticipant[] { SearchEngine.getDefaultSearchParticipant() }, scope, c, null);
-				return c.getResult();
-			} catch (CoreException e) {
-				Log.logError("Error calculating Afferent Coupling", e);
-				return null;
-			}
+			loadDependencies(pf.getJavaProject());
+			return new Metric(CA, PackageDependencies.singleton.getAfferentCoupling(pf.getHandleIdentifier()));
 		} /* else { */
 		// BUG #931022
 		return new Metric(CA, 0);
@@ -178,196 +159,50 @@ public class RMartinCouplings extends Calculator {
 	}
 
 	/**
-	 * Create a search scope consisting of all source packages in the element's project and all referencing projects. Exclude the element itself. This results in a DRAMATIC performance increase over SearchEngine.createWorkspaceScope().,...
+	 * Make sure the dependency graph covers the element's project and all referencing projects
 	 * 
-	 * @param element
-	 * @return IJavaSearchScope
+	 * @param project
 	 */
-	private IJavaSearchScope createProjectSearchScope(IJavaElement element) throws JavaModelException {
-		IJavaProject p = (IJavaProject) element.getAncestor(IJavaElement.JAVA_PROJECT);
-		List<IPackageFragment> scopeElements = new ArrayList<IPackageFragment>();
-		addPackagesInScope(p, scopeElements);
-		// find referencing projects and add their packages if any
-		IProject[] refProjects = p.getProject().getReferencingProjects();
-		if ((refProjects != null) && (refProjects.length > 0)) {
+	private void loadDependencies(IJavaProject project) {
+		PackageDependencies.singleton.load(project.getHandleIdentifier());
+		IProject[] refProjects = project.getProject().getReferencingProjects();
+		if (refProjects != null) {
 			for (IProject refProject : refProjects) {
 				IJavaProject next = JavaCore.create(refProject);
 				if (next != null) {
-					addPackagesInScope(next, scopeElements);
+					PackageDependencies.singleton.load(next.getHandleIdentifier());
 				}
 			}
 		}
-		// don't include the package under investigation!
-		scopeElements.remove(element);
-		return SearchEngine.createJavaSearchScope(scopeElements.toArray(new IJavaElement[] {}));
-	}
-
-	private void addPackagesInScope(IJavaProject project, List<IPackageFragment> scope) throws JavaModelException {
-		IPackageFragment[] packages = project.getPackageFragments();
-		for (IPackageFragment package1 : packages) {
-			if (package1.getKind() != IPackageFragmentRoot.K_BINARY) {
-				scope.add(package1);
-			}
-		}
-	}
-
-	private Metric calculateEfferentCoupling(PackageFragmentMetrics source) {
-		SearchPattern pattern = SearchPattern.createPattern("*", IJavaSearchConstants.PACKAGE, IJavaSearchConstants.REFERENCES, SearchPattern.R_PATTERN_MATCH);
-		IJavaSearchScope scope = SearchEngine.createJavaSearchScope(new IJavaElement[] { source.getJavaElement() });
-		SearchEngine searchEngine = new SearchEngine();
-		try {
-			EfferentCollector c = new EfferentCollector(source);
-			// searchEngine.search(ResourcesPlugin.getWorkspace(), pattern,
-			// scope, c);
-			searchEngine.search(pattern, new SearchParticipant[] { SearchEngine.getDefaultSearchParticipant() }, scope, c, null);
-			return c.getResult();
-		} catch (CoreException e) {
-			Log.logError("Error calculating Efferent Coupling", e);
-			return null;
-		}
 	}
 
 	/**
-	 * Uses the jdt searchengine to collect all classes outside this package that depend on things inside this package, in other words, collect references to this package in the entire workspace, and do not count those found inside this
-	 * package
-	 * 
-	 * @author Frank Sauer
+	 * Count the compilation units inside the package that reference types in other packages, not counting references to the standard java(x) API. Also
+	 * collects the names of the referenced packages as the package's efferent dependencies.
 	 * 
+	 * @param source
+	 * @return Ce Metric
 	 */
-	public static class AfferentCollector extends SearchRequestor {
-
-		private IJavaSearchScope packageScope;
-		private Set<String> results = null;
-		private Metric result = null;
-		private Set<String> packages = null;
-
-		public AfferentCollector(PackageFragmentMetrics source) {
-			packageScope = SearchEngine.createJavaSearchScope(new IJavaElement[] { source.getJavaElement() });
-		}
-
-		public Metric getResult() {
-			return result;
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see org.eclipse.jdt.core.search.SearchRequestor#beginReporting()
-		 */
-		@Override
-		public void beginReporting() {
-			results = new HashSet<String>();
-			packages = new HashSet<String>();
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see org.eclipse.jdt.core.search.SearchRequestor#acceptSearchMatch(org .eclipse.jdt.core.search.SearchMatch)
-		 */
-		@Override
-		public void acceptSearchMatch(SearchMatch match) throws CoreException {
-			IJavaElement enclosingElement = (IJavaElement) match.getElement();
-			if ((enclosingElement != null) && (!packageScope.encloses(enclosingElement))) {
-				IJavaElement pkg = enclosingElement.getAncestor(IJavaElement.PACKAGE_FRAGMENT);
-				results.add(match.getResource().getFullPath().toString());
-				packages.add(pkg.getElementName());
-			}
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see org.eclipse.jdt.core.search.SearchRequestor#endReporting()
-		 */
-		@Override
-		public void endReporting() {
-			result = new Metric(CA, results.size());
-		}
-
-	}
-
-	public static class EfferentCollector extends SearchRequestor
-	// implements IJavaSearchResultCollector
-	{
-
-		Metric result = null;
-		Set<String> results = null;
-		Set<String> packages = null;
-		PackageFragmentMetrics source = null;
-
-		public EfferentCollector(PackageFragmentMetrics source) {
-			this.source = source;
-		}
-
-		/**
-		 * @return
-		 */
-		public Metric getResult() {
-			return result;
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see org.eclipse.jdt.core.search.SearchRequestor#beginReporting()
-		 */
-		@Override
-		public void beginReporting() {
-			results = new HashSet<String>();
-			packages = new HashSet<String>();
-		}
-
-		private String getPackageName(IJavaElement enclosingElement, int start, int end) {
-			if (enclosingElement.getElementType() == IJavaElement.IMPORT_DECLARATION) {
-				String name = enclosingElement.getElementName();
-				int lastDot = name.lastIndexOf('.');
-				return name.substring(0, lastDot);
-			} /* else { */
-			ICompilationUnit unit = (ICompilationUnit) enclosingElement.getAncestor(IJavaElement.COMPILATION_UNIT);
-			try {
-				String source = unit.getSource();
-				return source.substring(start, end);
-			} catch (JavaModelException e) {
-				return null;
-			}
-			/* } */
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see org.eclipse.jdt.core.search.SearchRequestor#acceptSearchMatch(org .eclipse.jdt.core.search.SearchMatch)
-		 */
-		@Override
-		public void acceptSearchMatch(SearchMatch match) throws CoreException {
-			int start = match.getOffset();
-			int end = start + match.getLength();
-			if (match.getElement() != null) {
-				// don't count references to standard java(x) API
-				try {
-					String name = getPackageName((IJavaElement) match.getElement(), start, end);
-					if (!name.startsWith("java")) {
-						results.add(match.getResource().getFullPath().toString());
-						packages.add(name);
-					}
-				} catch (StringIndexOutOfBoundsException x) {
-					Log.logError("Ce: Error getting package name.", x);
+	private Metric calculateEfferentCoupling(PackageFragmentMetrics source) {
+		Map<String, Set<String>> units = PackageDependencies.singleton.getEfferentDependencies(source.getHandle());
+		Set<String> packages = new HashSet<String>();
+		int count = 0;
+		for (Set<String> next : units.values()) {
+			boolean dependent = false;
+			for (String handle : next) {
+				IJavaElement pkg = HandleDictionary.singleton.getElement(handle);
+				String name = (pkg == null) ? null : pkg.getElementName();
+				if ((name != null) && !name.startsWith("java")) {
+					packages.add(name);
+					dependent = true;
 				}
 			}
+			if (dependent) {
+				count++;
+			}
 		}
-
-		/*
-		 * (non-Javadoc)
-		 * 
-		 * @see org.eclipse.jdt.core.search.SearchRequestor#endReporting()
-		 */
-		@Override
-		public void endReporting() {
-			result = new Metric(CE, results.size());
-			source.setEfferentDependencies(packages);
-		}
-
+		source.setEfferentDependencies(packages);
+		return new Metric(CE, count);
 	}
 
 }
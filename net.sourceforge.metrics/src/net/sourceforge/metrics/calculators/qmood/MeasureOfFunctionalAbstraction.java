@@ -11,7 +11,6 @@ import net.sourceforge.metrics.core.sources.TypeMetrics;
 
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.internal.core.ResolvedSourceType;
 import org.eclipse.jdt.internal.corext.util.JdtFlags;
@@ -41,11 +40,11 @@ public class MeasureOfFunctionalAbstraction extends Calculator implements Consta
 			throw new InvalidSourceException("MFA is only applicable to types");
 		}
 		try {
-			ITypeHierarchy hierarchy = ((TypeMetrics) source).getHierarchy();
+			TypeMetrics tm = (TypeMetrics) source;
 			int declared = 0;
 			int inherited = 0;
-			declared = filterNonConstructors(hierarchy.getType().getMethods()).size();
-			for (IType superType : hierarchy.getAllSuperclasses(hierarchy.getType()))
+			declared = filterNonConstructors(((IType) tm.getJavaElement()).getMethods()).size();
+			for (IType superType : tm.getAllSuperclasses())
 				if (superType instanceof ResolvedSourceType) {
 					inherited += filterPublicAndProtected(superType.getMethods()).size();
 				}
@@ -29,7 +29,6 @@ import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 import net.sourceforge.metrics.core.sources.TypeMetrics;
 
 import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 
 /**
  * Calculates if this type is the root of a hierarchic tree, and receives NOH = 1. Otherwise NOH = 0.
@@ -55,16 +54,14 @@ public class NumberOfHierarchies extends Calculator implements Constants {
 			throw new InvalidSourceException("NumberOfHierarchies only applicable to types");
 		}
 		TypeMetrics tm = (TypeMetrics) source;
-		IType iType = (IType) source.getJavaElement();
-		ITypeHierarchy hierarchy = tm.getHierarchy();
-		IType[] supers = hierarchy.getAllSuperclasses(iType);
+		IType[] supers = tm.getAllSuperclasses();
 		int numSourceSupers = 0;
 		for (IType type : supers) {
 			if(!type.isBinary())
 				numSourceSupers++;
 		}
 		int numSubSources = 0;
-		IType[] subs = hierarchy.getSubtypes(iType); // BUG #933209
+		IType[] subs = tm.getSubtypes(); // BUG #933209
 		for (IType type : subs) {
 			if(!type.isBinary())
 				numSubSources++;
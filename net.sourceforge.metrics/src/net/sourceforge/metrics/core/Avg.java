@@ -24,7 +24,9 @@ import java.io.Serializable;
 import java.util.List;
 
 /**
- * An Avg is a number with an associated count of the datapoints it was calculated with, as well as the associated variance.
+ * An Avg is a number with an associated count of the datapoints it was calculated with, as well as the associated variance and a sketch of the
+ * distribution of the datapoints for percentiles. Averages are combined with the pairwise update of Chan et al., which stays accurate where the
+ * difference of the sum of squares and the squared mean does not.
  * 
  * @author Frank Sauer
  */
@@ -33,6 +35,10 @@ public class Avg extends Metric implements Serializable {
 	private static final long serialVersionUID = 4113517705917975168L;
 	protected int points;
 	protected double variance;
+	/**
+	 * distribution of the datapoints, null if unknown
+	 */
+	protected QuantileSketch sketch;
 
 	/**
 	 * Create the Avg for the metrics in the given list
@@ -46,17 +52,55 @@ public class Avg extends Metric implements Serializable {
 	 * @return Avg
 	 */
 	public static Avg createFromMetrics(String name, String per, List<Metric> metrics) {
-		int points = metrics.size();
+		double[] values = new double[metrics.size()];
+		int n = 0;
+		for (Metric next : metrics) {
+			values[n++] = next.doubleValue();
+		}
+		return createFromValues(name, per, values, n);
+	}
+
+	/**
+	 * Create the Avg for the first points values of the given array
+	 * 
+	 * @param name
+	 *            name of Avg
+	 * @param per
+	 *            scope of Avg
+	 * @param values
+	 * @param points
+	 * @return Avg
+	 */
+	public static Avg createFromValues(String name, String per, double[] values, int points) {
 		if (points == 0) {
-			return new Avg(name, per, 0, 0, 0);
+			return new Avg(name, per, 0, 0, 0, QuantileSketch.EMPTY);
 		}
-		double sum = 0, sum2 = 0;
-		for (Metric next : metrics) {
-			sum += next.doubleValue();
-			sum2 += next.doubleValue() * next.doubleValue();
+		// Welford
+		double avg = 0, m2 = 0;
+		for (int n = 1; n <= points; n++) {
+			double value = values[n - 1];
+			double delta = value - avg;
+			avg += delta / n;
+			m2 += delta * (value - avg);
 		}
-		double avg = sum / points;
-		return new Avg(name, per, avg, sum2 / points - avg * avg, points);
+		if (points < values.length) {
+			double[] used = new double[points];
+			System.arraycopy(values, 0, used, 0, points);
+			values = used;
+		}
+		return new Avg(name, per, avg, m2 / points, points, QuantileSketch.of(values));
+	}
+
+	/**
+	 * Create the Avg of a single datapoint
+	 * 
+	 * @param name
+	 * @param per
+	 * @param value
+	 * @return Avg
+	 */
+	public static Avg createFromValue(String name, String per, double value) {
+		return new Avg(name, per, value, 0, 1, QuantileSketch.of(value));
 	}
 
 	/**
@@ -71,24 +115,81 @@ public class Avg extends Metric implements Serializable {
 	 * @return Avg
 	 */
 	public static Avg createFromAverages(String name, String per, List<Avg> averages) {
-		double sum2 = 0, sum = 0;
-		int points = 0;
+		Avg result = new Avg(name, per, 0, 0, 0, QuantileSketch.EMPTY);
 		for (Avg next : averages) {
-			points += next.getPoints();
-			sum += next.doubleValue() * next.getPoints();
-			sum2 += next.getSum2();
+			result = result.add(next);
 		}
-		if (points == 0) {
-			return new Avg(name, per, 0, 0, 0);
+		return result;
+	}
+
+	/**
+	 * @param part
+	 *            may be null
+	 * @return the avg of the datapoints of this avg and those of part, named like this one
+	 */
+	public Avg add(Avg part) {
+		return combine(part, 1);
+	}
+
+	/**
+	 * Create the avg that results from replacing one contribution to the given avg by another, so the other contributions don't have to be looked at
+	 * again.
+	 * 
+	 * @param current
+	 *            avg including the old contribution
+	 * @param oldPart
+	 *            the old contribution, null if there was none
+	 * @param newPart
+	 *            the new contribution, null if there is none
+	 * @return Avg
+	 */
+	public static Avg update(Avg current, Avg oldPart, Avg newPart) {
+		return current.combine(oldPart, -1).combine(newPart, 1);
+	}
+
+	/**
+	 * @param part
+	 * @param sign
+	 *            1 to add the datapoints of part to this avg, -1 to take them out again
+	 * @return the combined avg, named like this one
+	 */
+	private Avg combine(Avg part, int sign) {
+		if ((part == null) || (part.getPoints() == 0)) {
+			return this;
 		}
-		double avg = sum / points;
-		return new Avg(name, per, avg, sum2 / points - avg * avg, points);
+		QuantileSketch combined = null;
+		if ((sketch != null) && (part.getSketch() != null)) {
+			combined = (sign > 0) ? sketch.merge(part.getSketch()) : sketch.subtract(part.getSketch());
+		}
+		int n = points + sign * part.getPoints();
+		if (n <= 0) {
+			return new Avg(getName(), getPer(), 0, 0, 0, QuantileSketch.EMPTY);
+		}
+		double m2 = points * variance;
+		double partM2 = part.getPoints() * part.getVariance();
+		double avg, delta;
+		if (sign > 0) {
+			delta = part.doubleValue() - getValue();
+			avg = getValue() + delta * part.getPoints() / n;
+			m2 += partM2 + delta * delta * points * part.getPoints() / n;
+		} else {
+			avg = (getValue() * points - part.doubleValue() * part.getPoints()) / n;
+			delta = part.doubleValue() - avg;
+			m2 -= partM2 + delta * delta * n * part.getPoints() / points;
+		}
+		// rounding errors must not make the variance negative
+		return new Avg(getName(), getPer(), avg, Math.max(0, m2 / n), n, combined);
 	}
 
 	public Avg(String name, String per, double value, double variance, int points) {
+		this(name, per, value, variance, points, null);
+	}
+
+	public Avg(String name, String per, double value, double variance, int points, QuantileSketch sketch) {
 		super(name, per, value);
 		this.variance = variance;
 		this.points = points;
+		this.sketch = sketch;
 	}
 
 	public double getVariance() {
@@ -103,6 +204,22 @@ public class Avg extends Metric implements Serializable {
 		return points;
 	}
 
+	/**
+	 * @return the distribution of the datapoints, null if unknown
+	 */
+	public QuantileSketch getSketch() {
+		return sketch;
+	}
+
+	/**
+	 * @param q
+	 *            between 0 and 1, e.g. 0.9 for the 90th percentile
+	 * @return the value below which the fraction q of the datapoints lies, NaN if unknown
+	 */
+	public double getQuantile(double q) {
+		return (sketch == null) ? Double.NaN : sketch.getQuantile(q);
+	}
+
 	/**
 	 * get the sum of the squares
 	 * 
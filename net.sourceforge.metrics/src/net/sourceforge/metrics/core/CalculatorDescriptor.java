@@ -20,10 +20,15 @@
  */
 package net.sourceforge.metrics.core;
 
+import java.util.StringTokenizer;
+
 import net.sourceforge.metrics.calculators.Calculator;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
 
 /**
  * Contains the specification of a calculator as contained in a plugin manifest
@@ -68,6 +73,53 @@ public class CalculatorDescriptor {
 		return config.getAttribute("name");
 	}
 
+	/**
+	 * Returns the version of the calculator, the version of the contributing plugin unless the calculator declares one. Stored with the values
+	 * the calculator produced, a new version causes them to be calculated again.
+	 * 
+	 * @return String
+	 */
+	public String getVersion() {
+		String version = config.getAttribute("version");
+		if (version != null) {
+			return version;
+		}
+		Bundle bundle = Platform.getBundle(config.getContributor().getName());
+		return (bundle == null) ? null : String.valueOf(bundle.getHeaders().get(Constants.BUNDLE_VERSION));
+	}
+
+	/**
+	 * Returns the names of the preferences the calculator reads. A change to one of them only invalidates the values of this calculator.
+	 * 
+	 * @return String[], empty if the calculator does not declare its preferences
+	 */
+	public String[] getPreferences() {
+		return getList("preferences");
+	}
+
+	/**
+	 * Returns the ids of the metrics the calculator stores besides the one named after it, used to order calculators by their requirements.
+	 * 
+	 * @return String[], empty if the calculator does not declare them
+	 * @see CalculatorPlan
+	 */
+	public String[] getMetricIds() {
+		return getList("metrics");
+	}
+
+	private String[] getList(String attribute) {
+		String list = config.getAttribute(attribute);
+		if (list == null) {
+			return new String[0];
+		}
+		StringTokenizer t = new StringTokenizer(list, ", ");
+		String[] result = new String[t.countTokens()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = t.nextToken();
+		}
+		return result;
+	}
+
 	/**
 	 * Returns the id.
 	 * 
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.metrics.calculators.Calculator;
+
+/**
+ * Orders the calculators of one level so that every calculator runs after the calculators (and propagators) of the same level producing the
+ * metrics it requires, and leaves out the calculators whose metrics are all disabled and not required by an enabled metric. The requirements
+ * come from the requires attribute of the metrics, the metrics a calculator produces are its name and the metrics attribute of its extension.
+ * <p>
+ * Calculators with unrelated requirements keep the order of the extension registry.
+ * 
+ * @author Frank Sauer
+ * @see MetricsPlugin#getCalculators(String, String)
+ */
+public class CalculatorPlan {
+
+	private CalculatorPlan() {
+	}
+
+	/**
+	 * @param c
+	 * @return the ids of the metrics c stores
+	 */
+	public static Set<String> getOutputs(ICalculator c) {
+		Set<String> result = new HashSet<String>();
+		result.add(c.getName());
+		if ((c instanceof Calculator) && (((Calculator) c).getDescriptor() != null)) {
+			result.addAll(Arrays.asList(((Calculator) c).getDescriptor().getMetricIds()));
+		}
+		return result;
+	}
+
+	/**
+	 * @param calculators
+	 *            the calculators of one level in registry order
+	 * @param requires
+	 *            the ids of the metrics required by each metric
+	 * @param disabled
+	 *            the ids of the disabled metrics
+	 * @return the calculators to run in the order they have to run
+	 */
+	public static List<ICalculator> plan(List<ICalculator> calculators, Map<String, String[]> requires, Set<String> disabled) {
+		Set<String> needed = getNeeded(requires, disabled);
+		List<ICalculator> remaining = new LinkedList<ICalculator>();
+		for (ICalculator c : calculators) {
+			if (isNeeded(c, requires, needed)) {
+				remaining.add(c);
+			}
+		}
+		List<ICalculator> result = new ArrayList<ICalculator>(remaining.size());
+		Set<String> produced = new HashSet<String>();
+		Set<String> pending = new HashSet<String>();
+		while (!remaining.isEmpty()) {
+			pending.clear();
+			for (ICalculator c : remaining) {
+				pending.addAll(getOutputs(c));
+			}
+			ICalculator next = null;
+			for (ICalculator c : remaining) {
+				if (isReady(c, requires, produced, pending)) {
+					next = c;
+					break;
+				}
+			}
+			if (next == null) {
+				// circular requirements, keep the registry order for the rest
+				next = remaining.get(0);
+			}
+			remaining.remove(next);
+			result.add(next);
+			produced.addAll(getOutputs(next));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the ids of the enabled metrics and all metrics they require, directly or indirectly
+	 */
+	private static Set<String> getNeeded(Map<String, String[]> requires, Set<String> disabled) {
+		Set<String> result = new HashSet<String>();
+		LinkedList<String> todo = new LinkedList<String>();
+		for (String id : requires.keySet()) {
+			if (!disabled.contains(id)) {
+				todo.add(id);
+			}
+		}
+		while (!todo.isEmpty()) {
+			String next = todo.removeFirst();
+			if (result.add(next)) {
+				String[] required = requires.get(next);
+				if (required != null) {
+					todo.addAll(Arrays.asList(required));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * a calculator is needed if it produces a needed metric, or if it produces no known metric at all
+	 */
+	private static boolean isNeeded(ICalculator c, Map<String, String[]> requires, Set<String> needed) {
+		boolean known = false;
+		for (String output : getOutputs(c)) {
+			if (needed.contains(output)) {
+				return true;
+			}
+			known |= requires.containsKey(output);
+		}
+		return !known;
+	}
+
+	/**
+	 * a calculator is ready when no calculator still waiting produces a metric it requires (other than its own)
+	 */
+	private static boolean isReady(ICalculator c, Map<String, String[]> requires, Set<String> produced, Set<String> pending) {
+		Set<String> outputs = getOutputs(c);
+		for (String output : outputs) {
+			String[] required = requires.get(output);
+			if (required != null) {
+				for (String id : required) {
+					if (!outputs.contains(id) && pending.contains(id) && !produced.contains(id)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -25,8 +25,15 @@ import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
 /**
  * Public interface all calculators must implement.
+ * <p>
+ * A single instance of each calculator serves all metric sources, and compilation units are calculated on several threads at once. calculate()
+ * must therefore be stateless: everything belonging to one call lives in local variables or in the source passed to it, which is the context of
+ * that call and is never shared between threads. Fields may only hold configuration that is set before the calculator is first used (name,
+ * descriptor, propagated metric and scope) or immutable/thread-safe static data. Calculators that need fields for their work implement
+ * ISerialCalculator and are then never run concurrently.
  * 
  * @author Frank Sauer
+ * @see ISerialCalculator
  * @see net.sourceforge.metrics.calculators.Calculator
  */
 public interface ICalculator {
@@ -34,5 +41,12 @@ public interface ICalculator {
 
 	void setName(String name);
 
+	/**
+	 * Calculate the metric(s) of this calculator and store them in source. May be called on several threads at once.
+	 * 
+	 * @param source
+	 *            the element being calculated, the only per-call context
+	 * @throws InvalidSourceException
+	 */
 	void calculate(AbstractMetricSource source) throws InvalidSourceException;
 }
\ No newline at end of file
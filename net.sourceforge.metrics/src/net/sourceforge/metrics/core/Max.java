@@ -20,11 +20,15 @@
  */
 package net.sourceforge.metrics.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
 
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.core.sources.HandleDictionary;
 
 import org.eclipse.jdt.core.IJavaElement;
 
@@ -37,9 +41,9 @@ public class Max extends Metric implements Serializable {
 
 	private static final long serialVersionUID = -6675399898791171393L;
 	/**
-	 * handle identifying the element causing this maximum
+	 * id in the HandleDictionary of the handle identifying the element causing this maximum, 0 if there is none
 	 */
-	private String handle;
+	private transient int handle;
 
 	public static Max createFromMetrics(String name, String per, List<Metric> values) {
 		double max = 0; // will be initialized with first max (if any)
@@ -97,7 +101,7 @@ public class Max extends Metric implements Serializable {
 	private Max(String name, String per, double value, IJavaElement element) {
 		this(name, per, value);
 		if (element != null) {
-			handle = element.getHandleIdentifier();
+			setHandle(element.getHandleIdentifier());
 		}
 	}
 
@@ -112,7 +116,7 @@ public class Max extends Metric implements Serializable {
 		b.append("Max[name = ").append(getName()).append(", ");
 		b.append("per = ").append(getPer()).append(", ");
 		b.append("value = ").append(getValue()).append(", ");
-		b.append("handle = ").append(handle).append(", ");
+		b.append("handle = ").append(getHandle()).append(", ");
 		return b.toString();
 	}
 
@@ -120,7 +124,7 @@ public class Max extends Metric implements Serializable {
 	 * @return String
 	 */
 	public String getHandle() {
-		return handle;
+		return HandleDictionary.singleton.getHandle(handle);
 	}
 
 	/**
@@ -130,7 +134,20 @@ public class Max extends Metric implements Serializable {
 	 *            The handle to set
 	 */
 	public void setHandle(String handle) {
-		this.handle = handle;
+		this.handle = HandleDictionary.singleton.getId(handle);
+	}
+
+	/**
+	 * ids are only valid until shutdown, so write the handle itself
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeObject(getHandle());
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		setHandle((String) in.readObject());
 	}
 
 }
@@ -34,7 +34,16 @@ public class Metric implements Constants, Serializable, Comparable<Metric> {
 
 	private static final long serialVersionUID = -1310980061419852562L;
 
-	private static NumberFormat nf;
+	// NumberFormat is not thread safe
+	private static ThreadLocal<NumberFormat> nf = new ThreadLocal<NumberFormat>() {
+		@Override
+		protected NumberFormat initialValue() {
+			NumberFormat result = NumberFormat.getInstance();
+			result.setMaximumFractionDigits(FRACTION_DIGITS);
+			result.setGroupingUsed(false);
+			return result;
+		}
+	};
 
 	private String name = "";
 	private double value;
@@ -103,12 +112,7 @@ public class Metric implements Constants, Serializable, Comparable<Metric> {
 	}
 
 	private static NumberFormat getNumberFormat() {
-		if (nf == null) {
-			nf = NumberFormat.getInstance();
-			nf.setMaximumFractionDigits(FRACTION_DIGITS);
-			nf.setGroupingUsed(false);
-		}
-		return nf;
+		return nf.get();
 	}
 
 	protected static String format(double d) {
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers the metric ids and the scopes (levels) of averages and maxima with dense int slots, so that metric sources can store their values in
+ * arrays instead of maps keyed by strings, and look up an average or maximum without concatenating its scope and id. The installed metrics and
+ * levels are numbered at plugin start, other ids get the next free slot when first stored.
+ * <p>
+ * Slots are only valid while the plugin runs, they are never persisted.
+ * 
+ * @author Frank Sauer
+ */
+public class MetricRegistry {
+
+	public static final MetricRegistry singleton = new MetricRegistry();
+
+	private ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] ids = new String[0];
+	private ConcurrentHashMap<String, Integer> scopeSlots = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] scopes = new String[0];
+	// scope + id of the averages and maxima stored so far, see getKey()
+	private ConcurrentHashMap<String, int[]> pairs = new ConcurrentHashMap<String, int[]>();
+	private volatile String[][] keys = new String[0][];
+
+	private MetricRegistry() {
+	}
+
+	/**
+	 * @param id
+	 * @return the slot of the metric id, assigned now if it has none yet
+	 */
+	public int getSlot(String id) {
+		Integer slot = slots.get(id);
+		return (slot != null) ? slot.intValue() : register(id);
+	}
+
+	/**
+	 * @param id
+	 * @return the slot of the metric id, -1 if it has none
+	 */
+	public int findSlot(String id) {
+		Integer slot = slots.get(id);
+		return (slot != null) ? slot.intValue() : -1;
+	}
+
+	private synchronized int register(String id) {
+		Integer slot = slots.get(id);
+		if (slot == null) {
+			String[] grown = new String[ids.length + 1];
+			System.arraycopy(ids, 0, grown, 0, ids.length);
+			grown[ids.length] = id;
+			slot = Integer.valueOf(ids.length);
+			ids = grown;
+			slots.put(id, slot);
+		}
+		return slot.intValue();
+	}
+
+	/**
+	 * @param scope
+	 *            the level an average or maximum is taken per, e.g. Constants.PER_METHOD
+	 * @return the slot of the scope, assigned now if it has none yet
+	 */
+	public int getScopeSlot(String scope) {
+		Integer slot = scopeSlots.get(scope);
+		return (slot != null) ? slot.intValue() : registerScope(scope);
+	}
+
+	/**
+	 * @param scope
+	 * @return the slot of the scope, -1 if it has none
+	 */
+	public int findScopeSlot(String scope) {
+		Integer slot = scopeSlots.get(scope);
+		return (slot != null) ? slot.intValue() : -1;
+	}
+
+	private synchronized int registerScope(String scope) {
+		Integer slot = scopeSlots.get(scope);
+		if (slot == null) {
+			String[] grown = new String[scopes.length + 1];
+			System.arraycopy(scopes, 0, grown, 0, scopes.length);
+			grown[scopes.length] = scope;
+			slot = Integer.valueOf(scopes.length);
+			scopes = grown;
+			scopeSlots.put(scope, slot);
+		}
+		return slot.intValue();
+	}
+
+	/**
+	 * @param slot
+	 * @return the metric id with the given slot
+	 */
+	public String getId(int slot) {
+		return ids[slot];
+	}
+
+	/**
+	 * @param slot
+	 * @return the scope with the given slot
+	 */
+	public String getScope(int slot) {
+		return scopes[slot];
+	}
+
+	/**
+	 * @return the number of metric ids with a slot
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param scope
+	 *            slot of the scope
+	 * @param slot
+	 *            slot of the metric id
+	 * @return the scope followed by the metric id, the key of an average or maximum in the maps of AbstractMetricSource
+	 */
+	public String getKey(int scope, int slot) {
+		String[][] current = keys;
+		if ((scope < current.length) && (current[scope] != null) && (slot < current[scope].length) && (current[scope][slot] != null)) {
+			return current[scope][slot];
+		}
+		return registerKey(scope, slot);
+	}
+
+	private synchronized String registerKey(int scope, int slot) {
+		String[][] grown = new String[Math.max(keys.length, scope + 1)][];
+		System.arraycopy(keys, 0, grown, 0, keys.length);
+		String[] row = (grown[scope] == null) ? new String[0] : grown[scope];
+		if ((slot >= row.length) || (row[slot] == null)) {
+			String[] grownRow = new String[Math.max(row.length, slot + 1)];
+			System.arraycopy(row, 0, grownRow, 0, row.length);
+			String key = scopes[scope] + ids[slot];
+			grownRow[slot] = key;
+			pairs.put(key, new int[] { scope, slot });
+			row = grownRow;
+		}
+		grown[scope] = row;
+		keys = grown;
+		return row[slot];
+	}
+
+	/**
+	 * @param key
+	 *            scope followed by metric id
+	 * @return the slots of the scope and id, null if the key does not start with a known scope followed by a known id
+	 */
+	public int[] findPair(String key) {
+		int[] pair = pairs.get(key);
+		if (pair == null) {
+			String[] current = scopes;
+			for (int scope = 0; scope < current.length; scope++) {
+				if (key.startsWith(current[scope])) {
+					int slot = findSlot(key.substring(current[scope].length()));
+					if (slot >= 0) {
+						getKey(scope, slot);
+						return new int[] { scope, slot };
+					}
+				}
+			}
+		}
+		return pair;
+	}
+}
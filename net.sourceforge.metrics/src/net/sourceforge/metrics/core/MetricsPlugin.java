@@ -21,23 +21,36 @@
 package net.sourceforge.metrics.core;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map.Entry;
 
+import net.sourceforge.metrics.builder.MetricsBuilder;
+import net.sourceforge.metrics.calculators.Calculator;
 import net.sourceforge.metrics.core.sources.Cache;
+import net.sourceforge.metrics.core.sources.PackageDependencies;
+import net.sourceforge.metrics.core.sources.TypeHierarchies;
 import net.sourceforge.metrics.propagators.Propagator;
 import net.sourceforge.metrics.propagators.Sum;
 
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IConfigurationElement;
 import org.eclipse.core.runtime.IExtension;
@@ -45,6 +58,7 @@ import org.eclipse.core.runtime.IExtensionPoint;
 import org.eclipse.core.runtime.ListenerList;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -59,6 +73,10 @@ import org.osgi.framework.BundleContext;
 public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeListener, Constants {
 
 	private Map<String, List<String>> metricsDependencies;
+	// whether calculators of a class have to run serially, see isSerial(). Read by all workers for every source, so it is not locked
+	private static ConcurrentHashMap<Class<?>, Boolean> serialClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+	// preferences declared by calculators
+	private Set<String> calculatorPreferences = new HashSet<String>();
 	private String[] descriptions;
 	private String[] ids;
 	// The shared instance.
@@ -67,6 +85,8 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 	private ResourceBundle resourceBundle;
 
 	private Map<String, List<ICalculator>> calculators = new HashMap<String, List<ICalculator>>();
+	// planned calculators per project name and level, see getCalculators(String, String)
+	private Map<String, Map<String, List<ICalculator>>> plans = new HashMap<String, Map<String, List<ICalculator>>>();
 	private Map<String, MetricDescriptor> metrics = new LinkedHashMap<String, MetricDescriptor>();
 	private Map<String, ExportDescriptor> exporters = new HashMap<String, ExportDescriptor>();
 	@SuppressWarnings("rawtypes")
@@ -181,14 +201,108 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 		// Cache.singleton.clear();
 	}
 
+	/**
+	 * identifies a calculator, its version and the preferences it calculates with. Stored with the values it calculated to detect that they are
+	 * out of date. Calculators declaring their preferences are identified by the values of those preferences, the others by the last time any
+	 * undeclared preference changed.
+	 * 
+	 * @param c
+	 * @return String
+	 */
+	public static String getCalculatorStamp(ICalculator c) {
+		StringBuffer b = new StringBuffer(c.getClass().getName());
+		b.append('/').append(c.getName());
+		if (c instanceof Propagator) {
+			b.append('/').append(((Propagator) c).getPer()).append('/').append(((Propagator) c).getX());
+		}
+		CalculatorDescriptor descriptor = (c instanceof Calculator) ? ((Calculator) c).getDescriptor() : null;
+		String version = (descriptor == null) ? null : descriptor.getVersion();
+		b.append('/').append((version == null) ? getDefault().getBundle().getVersion().toString() : version);
+		String[] preferences = (descriptor == null) ? new String[0] : descriptor.getPreferences();
+		if (preferences.length == 0) {
+			b.append('/').append(lastTimePreferencesChanged());
+		}
+		for (String preference : preferences) {
+			b.append('/').append(preference).append('=').append(getDefault().getPreferenceStore().getString(preference));
+		}
+		return b.toString();
+	}
+
+	/**
+	 * A calculator is serial if it says so by implementing ISerialCalculator or if its class (below Calculator and Propagator, whose fields are
+	 * only set while installing) declares instance fields that are not final.
+	 * 
+	 * @param c
+	 * @return true if c may not run on more than one thread at a time
+	 * @see ICalculator
+	 */
+	public static boolean isSerial(ICalculator c) {
+		if (c instanceof ISerialCalculator) {
+			return true;
+		}
+		Boolean serial = serialClasses.get(c.getClass());
+		if (serial == null) {
+			// two workers may both inspect a new class, they get the same answer
+			serial = Boolean.valueOf(hasMutableFields(c.getClass()));
+			serialClasses.putIfAbsent(c.getClass(), serial);
+		}
+		return serial.booleanValue();
+	}
+
+	private static boolean hasMutableFields(Class<?> type) {
+		for (Class<?> next = type; (next != null) && (next != Calculator.class) && (next != Propagator.class) && (next != Object.class); next = next
+				.getSuperclass()) {
+			for (Field field : next.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	public static boolean isWarningsEnabled() {
 		return getDefault().getPreferenceStore().getBoolean("METRICS.enablewarnings");
 	}
 
+	/**
+	 * number of worker threads used to calculate compilation units concurrently, at least 1
+	 * 
+	 * @return int
+	 */
+	public static int getCalculatorThreads() {
+		return Math.max(1, getDefault().getPreferenceStore().getInt("METRICS.calculatorThreads"));
+	}
+
+	/**
+	 * milliseconds incremental builds wait for further changes before their metrics are calculated, 0 to calculate them at once
+	 * 
+	 * @return long
+	 */
+	public static long getBuildDelay() {
+		return Math.max(0, getDefault().getPreferenceStore().getInt("METRICS.buildDelay"));
+	}
+
+	/**
+	 * estimated size of the recently used metrics kept in memory by the Cache
+	 * 
+	 * @return size in bytes
+	 */
+	public static long getMemoryCacheSize() {
+		return Math.max(0, getDefault().getPreferenceStore().getInt("METRICS.memoryCache")) * 1024L;
+	}
+
 	public void propertyChange(PropertyChangeEvent event) {
-		if (!event.getProperty().startsWith("METRICS")) {
+		if (calculatorPreferences.contains(event.getProperty())) {
+			// only the calculators reading it are stale
+			MetricsBuilder.recalculateStale();
+		} else if (!event.getProperty().startsWith("METRICS")) {
 			recordTimeAndClearCache();
 		} else {
+			if ("METRICS.memoryCache".equals(event.getProperty())) {
+				Cache.singleton.setMemoryBudget(getMemoryCacheSize());
+			}
 			ids = null;
 			descriptions = null;
 		}
@@ -210,6 +324,9 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 	 */
 	private void installMetrics() {
 		// System.err.println("Discovering and installing metrics");
+		for (String per : PER_ARRAY) {
+			MetricRegistry.singleton.getScopeSlot(per);
+		}
 		IExtensionPoint p = Platform.getExtensionRegistry().getExtensionPoint(PLUGIN_ID + ".metrics");
 		if (p != null) {
 			IExtension[] x = p.getExtensions();
@@ -301,6 +418,7 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 				// System.err.println("Added a sum: " + s);
 			}
 			metrics.put(m.getId(), m);
+			MetricRegistry.singleton.getSlot(m.getId());
 			installPropagators(m);
 			recordDependencies(m.getId(), m.getRequiredMetricIds());
 		}
@@ -339,6 +457,7 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 	private void addCalculator(CalculatorDescriptor c) {
 		List<ICalculator> calcs = getCalculators(c.getLevel());
 		calcs.add(c.createCalculator());
+		calculatorPreferences.addAll(Arrays.asList(c.getPreferences()));
 		// System.err.println(c);
 	}
 
@@ -404,12 +523,80 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 		return result;
 	}
 
+	/**
+	 * Get the calculators for the given level in the order they have to run for the given project, without the calculators of metrics disabled
+	 * in the project (unless an enabled metric requires them)
+	 * 
+	 * @param level
+	 *            as specified in the xml attribute level
+	 * @param projectName
+	 *            may be null for all metrics
+	 * @return List
+	 * @see CalculatorPlan
+	 */
+	public List<ICalculator> getCalculators(String level, String projectName) {
+		String key = (projectName == null) ? "" : projectName;
+		synchronized (plans) {
+			Map<String, List<ICalculator>> levels = plans.get(key);
+			if (levels == null) {
+				levels = new HashMap<String, List<ICalculator>>();
+				plans.put(key, levels);
+			}
+			List<ICalculator> result = levels.get(level);
+			if (result == null) {
+				Map<String, String[]> requires = new HashMap<String, String[]>();
+				for (MetricDescriptor next : metrics.values()) {
+					requires.put(next.getId(), next.getRequiredMetricIds());
+				}
+				result = CalculatorPlan.plan(getCalculators(level), requires, getDisabledMetrics(projectName));
+				levels.put(level, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * forget the planned calculators, for example because metrics were enabled or disabled
+	 */
+	public void clearCalculatorPlans() {
+		synchronized (plans) {
+			plans.clear();
+		}
+	}
+
+	/**
+	 * @param projectName
+	 * @return the ids of the metrics disabled in the properties of the project
+	 */
+	private Set<String> getDisabledMetrics(String projectName) {
+		Set<String> result = new HashSet<String>();
+		if (projectName == null) {
+			return result;
+		}
+		IProject project = ResourcesPlugin.getWorkspace().getRoot().getProject(projectName);
+		if (!project.isOpen()) {
+			return result;
+		}
+		for (MetricDescriptor next : metrics.values()) {
+			try {
+				if (next.isAllowDisable() && "false".equals(project.getPersistentProperty(new QualifiedName(PLUGIN_ID, next.getId() + ".enabled")))) {
+					result.add(next.getId());
+				}
+			} catch (CoreException e) {
+				Log.logError("Could not read enabled metrics of " + projectName, e);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop()
 	 */
 	@Override
 	public void stop(BundleContext context) throws Exception {
 		Cache.singleton.close();
+		TypeHierarchies.singleton.clear();
+		PackageDependencies.singleton.clear();
 		super.stop(context);
 	}
 
@@ -456,7 +643,15 @@ public class MetricsPlugin extends AbstractUIPlugin implements IPropertyChangeLi
 		if (descriptor == null) {
 			return null;
 		}
-		List<String> dependents = metricsDependencies.get(descriptor.getId());
+		return getDependentMetrics(descriptor.getId());
+	}
+
+	/**
+	 * @param id
+	 * @return the ids of the metrics requiring the metric with the given id, null if there are none
+	 */
+	public String[] getDependentMetrics(String id) {
+		List<String> dependents = metricsDependencies.get(id);
 		if (dependents != null) {
 			return dependents.toArray(new String[] {});
 		}
@@ -26,6 +26,9 @@ public class MetricsPreferenceInitializer extends AbstractPreferenceInitializer
 		prefStore.setDefault("METRICS.outOfRangeColor", "255,0,0");
 		prefStore.setDefault("METRICS.depGR_background", "1,17,68");
 		prefStore.setDefault("METRICS.showProject", true);
+		prefStore.setDefault("METRICS.calculatorThreads", 1);
+		prefStore.setDefault("METRICS.memoryCache", 4096);
+		prefStore.setDefault("METRICS.buildDelay", 1000);
 		prefStore.addPropertyChangeListener(MetricsPlugin.getDefault());
 	}
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compact, mergeable summary of the distribution of a metric, answering percentile queries with a relative error of at most ACCURACY. Values
+ * are counted in logarithmic buckets (as in DDSketch), so two sketches merge by adding their counts and, unlike t-digest or KLL, a contribution
+ * can be taken out again by subtracting them. This lets the propagators update a percentile incrementally when one child changes.
+ * <p>
+ * Sketches are immutable, add, merge and subtract return a new sketch.
+ * 
+ * @author Frank Sauer
+ */
+public class QuantileSketch implements Serializable {
+
+	private static final long serialVersionUID = -3310612658251426133L;
+
+	/** relative error of the percentiles */
+	public static final double ACCURACY = 0.01;
+
+	private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	// keys of positive values are OFFSET + bucket, of negative values -(OFFSET + bucket), 0 holds the zeroes
+	private static final int OFFSET = 1 << 20;
+
+	public static final QuantileSketch EMPTY = new QuantileSketch(new int[0], new int[0]);
+
+	private final int[] keys;
+	private final int[] counts;
+	private final int total;
+
+	/**
+	 * @param keys
+	 *            ascending bucket keys, see getKey()
+	 * @param counts
+	 *            number of values in each bucket
+	 */
+	public QuantileSketch(int[] keys, int[] counts) {
+		this.keys = keys;
+		this.counts = counts;
+		int sum = 0;
+		for (int count : counts) {
+			sum += count;
+		}
+		this.total = sum;
+	}
+
+	/**
+	 * @param value
+	 * @return a sketch of the single value
+	 */
+	public static QuantileSketch of(double value) {
+		return new QuantileSketch(new int[] { toKey(value) }, new int[] { 1 });
+	}
+
+	/**
+	 * @param values
+	 * @return a sketch of the values
+	 */
+	public static QuantileSketch of(double[] values) {
+		int[] sorted = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			sorted[i] = toKey(values[i]);
+		}
+		Arrays.sort(sorted);
+		int size = 0;
+		int[] keys = new int[sorted.length];
+		int[] counts = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			if ((size > 0) && (keys[size - 1] == sorted[i])) {
+				counts[size - 1]++;
+			} else {
+				keys[size] = sorted[i];
+				counts[size++] = 1;
+			}
+		}
+		return new QuantileSketch(trim(keys, size), trim(counts, size));
+	}
+
+	private static int toKey(double value) {
+		if (value == 0 || Double.isNaN(value)) {
+			return 0;
+		}
+		double bucket = Math.ceil(Math.log(Math.abs(value)) / LOG_GAMMA);
+		int key = OFFSET + (int) Math.max(1 - OFFSET, Math.min(OFFSET - 1, bucket));
+		return (value > 0) ? key : -key;
+	}
+
+	private static double toValue(int key) {
+		if (key == 0) {
+			return 0;
+		}
+		double value = 2 * Math.pow(GAMMA, Math.abs(key) - OFFSET) / (GAMMA + 1);
+		return (key > 0) ? value : -value;
+	}
+
+	private static int[] trim(int[] array, int size) {
+		if (array.length == size) {
+			return array;
+		}
+		int[] result = new int[size];
+		System.arraycopy(array, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * @param other
+	 * @return a sketch of the values of this sketch and the other
+	 */
+	public QuantileSketch merge(QuantileSketch other) {
+		return combine(other, 1);
+	}
+
+	/**
+	 * @param other
+	 *            a sketch of values that were merged into this one
+	 * @return a sketch of the values of this sketch without those of the other
+	 */
+	public QuantileSketch subtract(QuantileSketch other) {
+		return combine(other, -1);
+	}
+
+	private QuantileSketch combine(QuantileSketch other, int sign) {
+		if ((other == null) || (other.total == 0)) {
+			return this;
+		}
+		int[] resultKeys = new int[keys.length + other.keys.length];
+		int[] resultCounts = new int[resultKeys.length];
+		int size = 0, i = 0, j = 0;
+		while ((i < keys.length) || (j < other.keys.length)) {
+			int key, count;
+			if ((j == other.keys.length) || ((i < keys.length) && (keys[i] < other.keys[j]))) {
+				key = keys[i];
+				count = counts[i++];
+			} else if ((i == keys.length) || (other.keys[j] < keys[i])) {
+				key = other.keys[j];
+				count = sign * other.counts[j++];
+			} else {
+				key = keys[i];
+				count = counts[i++] + sign * other.counts[j++];
+			}
+			// a contribution that was never merged in must not leave negative counts
+			if (count > 0) {
+				resultKeys[size] = key;
+				resultCounts[size++] = count;
+			}
+		}
+		return new QuantileSketch(trim(resultKeys, size), trim(resultCounts, size));
+	}
+
+	/**
+	 * @param q
+	 *            between 0 and 1, e.g. 0.9 for the 90th percentile
+	 * @return the value below which the fraction q of the values lies, NaN if the sketch is empty
+	 */
+	public double getQuantile(double q) {
+		if (total == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) Math.floor(Math.max(0, Math.min(1, q)) * (total - 1));
+		long seen = 0;
+		for (int i = 0; i < keys.length; i++) {
+			seen += counts[i];
+			if (seen > rank) {
+				return toValue(keys[i]);
+			}
+		}
+		return toValue(keys[keys.length - 1]);
+	}
+
+	/**
+	 * @return the number of values in the sketch
+	 */
+	public int getCount() {
+		return total;
+	}
+
+	/**
+	 * @return the number of non-empty buckets
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @param i
+	 * @return the key of the i-th bucket, keys are ascending
+	 */
+	public int getKey(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the number of values in the i-th bucket
+	 */
+	public int getCount(int i) {
+		return counts[i];
+	}
+}
@@ -22,11 +22,11 @@ package net.sourceforge.metrics.core.sources;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import net.sourceforge.metrics.calculators.InvalidSourceException;
 import net.sourceforge.metrics.core.Avg;
 import net.sourceforge.metrics.core.Constants;
 import net.sourceforge.metrics.core.ICalculator;
@@ -36,6 +36,8 @@ import net.sourceforge.metrics.core.Metric;
 import net.sourceforge.metrics.core.MetricDescriptor;
 import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.internal.xml.IXMLExporter;
+import net.sourceforge.metrics.propagators.FusedPropagation;
+import net.sourceforge.metrics.propagators.Propagator;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
@@ -52,17 +54,22 @@ import org.eclipse.jdt.core.dom.CompilationUnit;
  * 
  * @author Frank Sauer
  */
-public abstract class AbstractMetricSource implements Constants, Serializable {
+public abstract class AbstractMetricSource implements Constants, Serializable, Cloneable {
 
 	static final long serialVersionUID = 3488676461898775539L;
 
 	protected String handle = null;
 	transient private AbstractMetricSource parent = null;
 	transient private List<AbstractMetricSource> children = null;
-	private Map<String, Metric> values = new HashMap<String, Metric>();
-	private Map<String, Avg> averages = new HashMap<String, Avg>();
-	private Map<String, Max> maxima = new HashMap<String, Max>();
+	transient private IJavaElement element = null;
+	private MetricSlots<Metric> values = new MetricSlots<Metric>(false);
+	private MetricSlots<Avg> averages = new MetricSlots<Avg>(true);
+	private MetricSlots<Max> maxima = new MetricSlots<Max>(true);
 	private List<String> childHandles = new ArrayList<String>();
+	/**
+	 * stamp of the calculators that calculated this package, source folder or project, 0 for compilation units and below
+	 */
+	private int calculatorsStamp = 0;
 
 	private boolean doRecurse = true;
 
@@ -109,7 +116,7 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	public AbstractMetricSource[] getChildrenHaving(String per, String metric) {
 		List<AbstractMetricSource> result = new ArrayList<AbstractMetricSource>();
 		for (Object element : childHandles) {
-			IJavaElement elm = JavaCore.create((String) element);
+			IJavaElement elm = HandleDictionary.singleton.getElement((String) element);
 			if (elm != null) {
 				AbstractMetricSource next = Dispatcher.getAbstractMetricSource(elm);
 				if (next != null) {
@@ -172,6 +179,38 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		// System.err.println("calculate: " +
 		// getJavaElement().getHandleIdentifier());
 		invokeCalculators();
+		stampCalculators();
+	}
+
+	/**
+	 * @return true if this package, source folder or project was calculated by the calculators currently planned for it (same versions,
+	 *         preferences and enabled metrics), always true for compilation units and below whose calculators are checked by StoredResults
+	 * @see MetricsPlugin#getCalculatorStamp(ICalculator)
+	 */
+	public boolean hasCurrentCalculators() {
+		return (getLevel() <= COMPILATIONUNIT) || (calculatorsStamp == getCurrentCalculatorsStamp());
+	}
+
+	public int getCalculatorsStamp() {
+		return calculatorsStamp;
+	}
+
+	public void setCalculatorsStamp(int calculatorsStamp) {
+		this.calculatorsStamp = calculatorsStamp;
+	}
+
+	private void stampCalculators() {
+		if (getLevel() > COMPILATIONUNIT) {
+			calculatorsStamp = getCurrentCalculatorsStamp();
+		}
+	}
+
+	private int getCurrentCalculatorsStamp() {
+		int result = 1;
+		for (ICalculator c : getCalculators()) {
+			result = 31 * result + MetricsPlugin.getCalculatorStamp(c).hashCode();
+		}
+		return result;
 	}
 
 	/**
@@ -180,11 +219,12 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	 * @see metrics.core.IMetricSource#setInputElement(org.eclipse.jdt.core.IJavaElement)
 	 */
 	public void setJavaElement(IJavaElement input) {
-		this.handle = input.getHandleIdentifier();
+		setHandle(input.getHandleIdentifier());
 	}
 
 	public void setHandle(String handle) {
-		this.handle = handle;
+		this.handle = HandleDictionary.singleton.intern(handle);
+		element = null;
 	}
 
 	protected abstract void initializeChildren(AbstractMetricSource parentMetric);
@@ -202,8 +242,8 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	public void setValue(Metric value) {
 		// System.err.println(input.getElementName()+"."+value.getName() + " = "
 		// + value.doubleValue());
-		values.put(value.getName(), value);
-		if (MetricsPlugin.isWarningsEnabled() && !value.isPropagated()) {
+		values.put(value);
+		if (!value.isPropagated() && MetricsPlugin.isWarningsEnabled()) {
 			checkRange(value);
 		}
 	}
@@ -273,7 +313,7 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		// System.err.println("AVG " + input.getElementName() +
 		// "."+value.getName() + " per " + value.getPer() + " = " +
 		// value.doubleValue());
-		averages.put(value.getPer() + value.getName(), value);
+		averages.put(value);
 	}
 
 	/**
@@ -285,7 +325,7 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		// System.err.println("MAX " + input.getElementName() +
 		// "."+value.getName() + " per " + value.getPer() + " = " +
 		// value.doubleValue());
-		maxima.put(value.getPer() + value.getName(), value);
+		maxima.put(value);
 	}
 
 	/**
@@ -295,7 +335,7 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	 * @return Metric
 	 */
 	public Metric getValue(String id) {
-		return values.get(id);
+		return values.get(id, null);
 	}
 
 	/**
@@ -307,6 +347,18 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		return values;
 	}
 
+	MetricSlots<Metric> getValueSlots() {
+		return values;
+	}
+
+	MetricSlots<Avg> getAverageSlots() {
+		return averages;
+	}
+
+	MetricSlots<Max> getMaximumSlots() {
+		return maxima;
+	}
+
 	/**
 	 * not meant for public use
 	 */
@@ -328,6 +380,79 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		}
 	}
 
+	/**
+	 * Update the propagated metrics of this (cached) source for the children that were recalculated, added or removed since it was calculated,
+	 * without loading any of its other children. The propagators take out the old contribution of each child and add its new one, the remaining
+	 * calculators run as usual. Saves the source when done.
+	 * 
+	 * @param previous
+	 *            maps the handles of the children to the children as they were when this source was calculated, null for children added since.
+	 *            Their current metrics are read from the Cache, where a removed child no longer exists
+	 * @return false if a propagator needs to see all children again (e.g. the child holding a maximum got smaller), this source then has to be
+	 *         calculated from scratch
+	 */
+	public boolean update(Map<String, AbstractMetricSource> previous) {
+		List<AbstractMetricSource[]> changes = new ArrayList<AbstractMetricSource[]>();
+		for (Map.Entry<String, AbstractMetricSource> next : previous.entrySet()) {
+			AbstractMetricSource current = Cache.singleton.get(next.getKey());
+			if ((next.getValue() != null) || (current != null)) {
+				changes.add(new AbstractMetricSource[] { next.getValue(), current });
+			}
+		}
+		List<ICalculator> others = new ArrayList<ICalculator>();
+		for (ICalculator c : getCalculators()) {
+			if (c instanceof Propagator) {
+				for (AbstractMetricSource[] change : changes) {
+					if (!((Propagator) c).update(this, change[0], change[1])) {
+						return false;
+					}
+				}
+			} else {
+				others.add(c);
+			}
+		}
+		for (AbstractMetricSource[] change : changes) {
+			if (change[1] == null) {
+				childHandles.remove(change[0].getHandle());
+			} else if (!childHandles.contains(change[1].getHandle())) {
+				childHandles.add(change[1].getHandle());
+			}
+		}
+		childrenUpdated(changes);
+		invokeCalculators(others);
+		stampCalculators();
+		save();
+		return true;
+	}
+
+	/**
+	 * @return a detached copy of this source whose metrics don't change when this source is updated
+	 */
+	public AbstractMetricSource copy() {
+		try {
+			AbstractMetricSource copy = (AbstractMetricSource) super.clone();
+			copy.parent = null;
+			copy.children = null;
+			copy.values = values.copy();
+			copy.averages = averages.copy();
+			copy.maxima = maxima.copy();
+			copy.childHandles = new ArrayList<String>(childHandles);
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Called by update(Map) after the propagators have taken the changed children into account, for metrics that are not calculated by a
+	 * calculator.
+	 * 
+	 * @param changes
+	 *            pairs of the old (null if added) and new (null if removed) state of each changed child
+	 */
+	protected void childrenUpdated(List<AbstractMetricSource[]> changes) {
+	}
+
 	protected void save() {
 		detachChildren();
 		Cache.singleton.put(this);
@@ -429,7 +554,7 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	 * @return Avg
 	 */
 	public Avg getAverage(String name, String per) {
-		return averages.get(per + name);
+		return averages.get(name, per);
 	}
 
 	public Map<String, Avg> getAverages() {
@@ -444,7 +569,7 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	 * @return Avg
 	 */
 	public Max getMaximum(String name, String per) {
-		return maxima.get(per + name);
+		return maxima.get(name, per);
 	}
 
 	public Map<String, Max> getMaxima() {
@@ -457,7 +582,10 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	 * @return IJavaElement
 	 */
 	public IJavaElement getJavaElement() {
-		return JavaCore.create(handle);
+		if ((element == null) && (handle != null)) {
+			element = HandleDictionary.singleton.getElement(handle);
+		}
+		return element;
 	}
 
 	/**
@@ -502,16 +630,69 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 	}
 
 	/**
-	 * invokes calculate() on all calculators. TODO fine-grained Cache lookup so we can add new metrics
+	 * @param level
+	 *            as specified in the xml attribute level
+	 * @return the calculators of the level in the order they have to run, without those of metrics disabled in the project of this source
+	 * @see MetricsPlugin#getCalculators(String, String)
+	 */
+	protected List<ICalculator> getCalculators(String level) {
+		return MetricsPlugin.getDefault().getCalculators(level, HandleDictionary.getProjectName(getHandle()));
+	}
+
+	/**
+	 * invokes calculate() on all calculators, the propagators first in a single pass over the children (see FusedPropagation). Metrics added
+	 * or changed by a plugin update are calculated because the calculator stamps change (see StoredResults and hasCurrentCalculators()), but
+	 * always for whole compilation units and containers: a new metric is not looked up or stored on its own
 	 */
 	protected void invokeCalculators() {
-		for (Iterator<ICalculator> i = getCalculators().iterator(); i.hasNext();) {
+		List<ICalculator> calculators = getCalculators();
+		List<Propagator> propagators = new ArrayList<Propagator>(calculators.size());
+		List<ICalculator> others = new ArrayList<ICalculator>(calculators.size());
+		for (ICalculator c : calculators) {
+			if ((c instanceof Propagator) && !MetricsPlugin.isSerial(c)) {
+				propagators.add((Propagator) c);
+			} else {
+				others.add(c);
+			}
+		}
+		if (!propagators.isEmpty()) {
+			if (metricsInterruptus()) {
+				return;
+			}
+			FusedPropagation.calculate(this, propagators);
+		}
+		invokeCalculators(others);
+	}
+
+	/**
+	 * invokes calculate() on the given calculators, logging (and otherwise ignoring) their errors. While the results of a compilation unit are
+	 * recorded, the values of calculators that did not change since the last calculation are reused instead.
+	 * 
+	 * @param calculators
+	 * @see StoredResults
+	 */
+	protected void invokeCalculators(List<ICalculator> calculators) {
+		StoredResults results = StoredResults.get();
+		if (results != null) {
+			calculators = results.reuse(this, calculators);
+		}
+		for (Iterator<ICalculator> i = calculators.iterator(); i.hasNext();) {
 			if (metricsInterruptus()) {
 				return;
 			}
 			ICalculator c = i.next();
 			try {
-				c.calculate(this);
+				if ((results != null) && results.before(this, c)) {
+					boolean done = false;
+					try {
+						calculate(c);
+						done = true;
+					} finally {
+						results.after(this, c, done);
+					}
+				} else {
+					calculate(c);
+				}
 			} catch (OutOfMemoryError m) {
 				throw m;
 			} catch (Throwable e) {
@@ -520,6 +701,16 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		}
 	}
 
+	private void calculate(ICalculator c) throws InvalidSourceException {
+		if (MetricsPlugin.isSerial(c)) {
+			synchronized (c) {
+				c.calculate(this);
+			}
+		} else {
+			c.calculate(this);
+		}
+	}
+
 	/**
 	 * Sets the doRecurse.
 	 * 
@@ -530,6 +721,10 @@ public abstract class AbstractMetricSource implements Constants, Serializable {
 		this.doRecurse = doRecurse;
 	}
 
+	boolean isDoRecurse() {
+		return doRecurse;
+	}
+
 	/**
 	 * @return
 	 */
@@ -21,12 +21,14 @@
 package net.sourceforge.metrics.core.sources;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 
 import jdbm.RecordManager;
 import jdbm.RecordManagerFactory;
@@ -34,7 +36,7 @@ import jdbm.RecordManagerOptions;
 import jdbm.helper.FastIterator;
 import jdbm.helper.IterationException;
 import jdbm.htree.HTree;
-import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.builder.MetricsBuilder;
 import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.MetricsPlugin;
 
@@ -42,14 +44,22 @@ import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.JavaCore;
 
 /**
- * public API to the private database. Currently the database is a jdbm persistent hashtable with MRU cache.
+ * public API to the private database. Currently the database is a jdbm persistent hashtable with MRU cache. The hashtable maps handles to the record ids of the metric sources, which are stored by a SourceSerializer. The most recently used sources are also kept by handle in a SourceCache. Stored sources are written and committed in groups by a background flusher, flush() makes sure they are on disk. Metrics may be calculated by several worker threads while the UI and exporters read them, so all access to the database is serialized. Only lookups of recently used sources bypass that lock, the SourceCache has its own.
  * 
  * @author Frank Sauer
  */
 public class Cache {
 
 	private static final String DBNAME = "/metricsdb";
+	// project names cannot contain a slash, so this can't clash with a project
+	private static final String INDEX_SUFFIX = "/index";
+	private static final String FORMAT_SUFFIX = "/format";
+	private static final String DICTIONARY = "/dictionary";
+	// write the pending sources when there are this many of them, or when the oldest has waited this long (ms)
+	private static final int FLUSH_SIZE = 1000;
+	private static final long FLUSH_DELAY = 2000;
 	private RecordManager recman;
+	private SourceSerializer serializer;
 
 	private String pluginDir;
 
@@ -57,12 +67,22 @@ public class Cache {
 
 	// keep roots (projectName -> HTree)
 	private Map<String, HTree> projects = new HashMap<String, HTree>();
-	private Map<String, Set<String>> keys = new HashMap<String, Set<String>>();
+	// keep handle indexes (projectName -> HandleIndex)
+	private Map<String, HandleIndex> indexes = new HashMap<String, HandleIndex>();
+	// recently used sources (handle -> source)
+	private SourceCache recent;
+	// sources stored but not yet written (handle -> source)
+	private Map<String, AbstractMetricSource> pending = new LinkedHashMap<String, AbstractMetricSource>();
+	private long firstPending = 0;
+	private Thread flusher = null;
+	// set by close(), the flusher is not started again
+	private boolean closed = false;
 
 	private Cache() {
 		super();
 		// the follwing fixes a bug submitted outside of SF by Parasoft
 		pluginDir = MetricsPlugin.getDefault().getStateLocation().toString();
+		recent = new SourceCache(MetricsPlugin.getMemoryCacheSize());
 		// pluginDir =
 		// Platform.getPlugin(Log.pluginId).getStateLocation().toString();
 		initRecordManager();
@@ -75,11 +95,26 @@ public class Cache {
 			props.put(RecordManagerOptions.AUTO_COMMIT, "false");
 			props.put(RecordManagerOptions.THREAD_SAFE, "true");
 			recman = RecordManagerFactory.createRecordManager(pluginDir + DBNAME, props);
+			serializer = new SourceSerializer(getDictionary());
 		} catch (Throwable e) {
 			Log.logError("Could not open/create jdbm database", e);
 		}
 	}
 
+	private SourceSerializer.Dictionary getDictionary() throws IOException {
+		SourceSerializer.Dictionary dictionary;
+		long recid = recman.getNamedObject(DICTIONARY);
+		if (recid != 0) {
+			dictionary = (SourceSerializer.Dictionary) recman.fetch(recid);
+		} else {
+			dictionary = new SourceSerializer.Dictionary();
+			recid = recman.insert(dictionary);
+			recman.setNamedObject(DICTIONARY, recid);
+		}
+		dictionary.recid = recid;
+		return dictionary;
+	}
+
 	private HTree getHashtableForProject(String projectName) {
 		HTree hashtable = projects.get(projectName);
 		if (hashtable == null) {
@@ -87,9 +122,13 @@ public class Cache {
 				long recid = recman.getNamedObject(projectName);
 				if (recid != 0) {
 					hashtable = HTree.load(recman, recid);
+					if (recman.getNamedObject(projectName + FORMAT_SUFFIX) == 0) {
+						hashtable = discardOldFormat(projectName, hashtable);
+					}
 				} else {
 					hashtable = HTree.createInstance(recman);
 					recman.setNamedObject(projectName, hashtable.getRecid());
+					setFormat(projectName);
 				}
 				projects.put(projectName, hashtable);
 			} catch (Throwable e) {
@@ -99,10 +138,79 @@ public class Cache {
 		return hashtable;
 	}
 
+	private void setFormat(String projectName) throws IOException {
+		long recid = recman.getNamedObject(projectName + FORMAT_SUFFIX);
+		if (recid != 0) {
+			recman.update(recid, Integer.valueOf(SourceSerializer.VERSION));
+		} else {
+			recid = recman.insert(Integer.valueOf(SourceSerializer.VERSION));
+			recman.setNamedObject(projectName + FORMAT_SUFFIX, recid);
+		}
+	}
+
+	/**
+	 * Older versions stored the metric sources themselves in the hashtable using java serialization. Those objects cannot be read anymore, their
+	 * fields changed since (slots instead of maps, dictionary ids instead of handles), and jdbm deserializes a whole bucket to read any of its
+	 * entries. Replace the hashtable by an empty one and request a full build of the project, which calculates its metrics again.
+	 * 
+	 * @return the new, empty hashtable
+	 */
+	private HTree discardOldFormat(String projectName, HTree old) throws IOException {
+		int discarded = 0;
+		try {
+			FastIterator it = old.keys();
+			while (it.next() != null) {
+				discarded++;
+			}
+		} catch (Throwable e) {
+			// the keys of unreadable buckets are not counted
+		}
+		recman.delete(old.getRecid());
+		HTree hashtable = HTree.createInstance(recman);
+		recman.setNamedObject(projectName, hashtable.getRecid());
+		indexes.remove(projectName);
+		long id = recman.getNamedObject(projectName + INDEX_SUFFIX);
+		if (id != 0) {
+			recman.delete(id);
+			recman.setNamedObject(projectName + INDEX_SUFFIX, 0);
+		}
+		setFormat(projectName);
+		recman.commit();
+		Log.logMessage("Discarded " + discarded + " stored metrics of " + projectName + " written by an older version, converted none. Requesting a full metrics build of " + projectName);
+		MetricsBuilder.requestFullBuild(projectName);
+		return hashtable;
+	}
+
+	private AbstractMetricSource load(HTree hashtable, String handle) throws IOException {
+		Object value = hashtable.get(handle);
+		if (value instanceof Long) {
+			return (AbstractMetricSource) recman.fetch(((Long) value).longValue(), serializer);
+		}
+		if (value instanceof AbstractMetricSource) {
+			return (AbstractMetricSource) value;
+		}
+		return null;
+	}
+
+	private void delete(HTree hashtable, String handle) throws IOException {
+		Object value = hashtable.get(handle);
+		if (value instanceof Long) {
+			recman.delete(((Long) value).longValue());
+		}
+		hashtable.remove(handle);
+	}
+
 	private HTree getHashtableForHandle(String handle) {
-		IJavaElement element = JavaCore.create(handle);
-		String projectName = getProjectName(element);
-		return getHashtableForProject(projectName);
+		return getHashtableForProject(getProjectName(handle));
+	}
+
+	/**
+	 * @param handle
+	 * @return name of the project, taken from the handle itself if possible
+	 */
+	private String getProjectName(String handle) {
+		String projectName = HandleDictionary.getProjectName(handle);
+		return (projectName != null) ? projectName : getProjectName(JavaCore.create(handle));
 	}
 
 	/**
@@ -118,45 +226,168 @@ public class Cache {
 		/* } */
 	}
 
-	public void put(AbstractMetricSource source) {
+	/**
+	 * Store a copy of the source, later changes of the source do not affect it. It is written to the database later, together with other
+	 * sources, until then get() returns it from memory.
+	 * 
+	 * @param source
+	 */
+	public synchronized void put(AbstractMetricSource source) {
 		if (source == null) {
 			return;
 		}
+		source = source.copy();
+		// the stored copy must not hold on to the AST
+		source.dispose();
+		String handle = source.getHandle();
+		try {
+			getIndexForHandle(handle).add(handle, source.getLevel());
+		} catch (Throwable e) {
+			Log.logError("Could not index " + handle, e);
+		}
+		recent.put(source);
+		pending.remove(handle);
+		pending.put(handle, source);
+		if (pending.size() == 1) {
+			firstPending = System.currentTimeMillis();
+			startFlusher();
+		}
+		if (pending.size() >= FLUSH_SIZE) {
+			flush();
+		}
+	}
+
+	private void write(AbstractMetricSource source) {
 		try {
 			String handle = source.getHandle();
-			getHashtableForHandle(handle).put(handle, source);
-			getKeysForHandle(handle).add(handle);
-			if (source.getLevel() >= Constants.PACKAGEFRAGMENT) {
-				recman.commit();
+			HTree hashtable = getHashtableForHandle(handle);
+			Object old = hashtable.get(handle);
+			if (old instanceof Long) {
+				recman.update(((Long) old).longValue(), source, serializer);
+			} else {
+				hashtable.put(handle, Long.valueOf(recman.insert(source, serializer)));
 			}
 		} catch (Throwable e) {
+			recent.remove(source.getHandle());
 			Log.logError("Could not store " + source.getHandle(), e);
 		}
 	}
 
 	/**
-	 * @param handle
+	 * Write all pending sources and commit them to disk. Used when a project completes and when the plugin stops.
 	 */
-	public Set<String> getKeysForHandle(String handle) {
-		IJavaElement element = JavaCore.create(handle);
-		String projectName = getProjectName(element);
-		Set<String> s = keys.get(projectName);
-		if (s == null) {
-			s = getKeys(handle);
-			keys.put(projectName, s);
+	public synchronized void flush() {
+		for (AbstractMetricSource next : pending.values()) {
+			write(next);
 		}
-		return s;
+		pending.clear();
+		try {
+			saveMetadata();
+			recman.commit();
+		} catch (Throwable e) {
+			Log.logError("Could not commit latest changes.", e);
+		}
+	}
+
+	/**
+	 * start the background thread that flushes the pending sources once the oldest has waited FLUSH_DELAY ms, if it isn't running yet
+	 */
+	private void startFlusher() {
+		if (closed) {
+			return;
+		}
+		if (flusher != null) {
+			notifyAll();
+			return;
+		}
+		flusher = new Thread("Metrics cache flusher") {
+			@Override
+			public void run() {
+				synchronized (Cache.this) {
+					try {
+						while (flusher == this) {
+							if (pending.isEmpty()) {
+								Cache.this.wait();
+							} else {
+								long due = firstPending + FLUSH_DELAY - System.currentTimeMillis();
+								if (due > 0) {
+									Cache.this.wait(due);
+								} else {
+									flush();
+								}
+							}
+						}
+					} catch (InterruptedException e) {
+						// closed
+					}
+				}
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	private void stopFlusher() {
+		if (flusher != null) {
+			flusher.interrupt();
+			flusher = null;
+		}
+	}
+
+	/**
+	 * @param handle
+	 * @return handles of all stored elements below the given handle
+	 */
+	public synchronized List<String> getDescendants(String handle) {
+		return getIndexForHandle(handle).getDescendants(handle);
+	}
 
+	/**
+	 * @param handle
+	 * @return handles of the stored elements directly below the given handle
+	 */
+	public synchronized List<String> getChildren(String handle) {
+		return getIndexForHandle(handle).getChildren(handle);
+	}
+
+	private HandleIndex getIndexForHandle(String handle) {
+		return getIndexForProject(getProjectName(handle));
 	}
 
-	private Set<String> getKeys(String handle) {
-		HTree map = getHashtableForHandle(handle);
-		Set<String> result = new HashSet<String>();
+	private HandleIndex getIndexForProject(String projectName) {
+		HandleIndex index = indexes.get(projectName);
+		if (index == null) {
+			try {
+				long recid = recman.getNamedObject(projectName + INDEX_SUFFIX);
+				if (recid != 0) {
+					index = (HandleIndex) recman.fetch(recid);
+					index.recid = recid;
+				} else {
+					// database written before handle indexes existed
+					index = createIndex(projectName);
+					index.recid = recman.insert(index);
+					recman.setNamedObject(projectName + INDEX_SUFFIX, index.recid);
+				}
+			} catch (Throwable e) {
+				Log.logError("Could not get/create handle index for " + projectName, e);
+				index = new HandleIndex();
+			}
+			indexes.put(projectName, index);
+		}
+		return index;
+	}
+
+	private HandleIndex createIndex(String projectName) {
+		HandleIndex result = new HandleIndex();
+		HTree map = getHashtableForProject(projectName);
 		try {
 			FastIterator it = map.keys();
 			String next = (String) it.next();
 			while (next != null) {
-				result.add(next);
+				AbstractMetricSource source = load(map, next);
+				if (source != null) {
+					result.add(next, source.getLevel());
+				}
 				next = (String) it.next();
 			}
 		} catch (IterationException e) {
@@ -164,56 +395,101 @@ public class Cache {
 		} catch (Throwable e) {
 			Log.logError("Error iterating over database keys", e);
 		}
-
 		return result;
 	}
 
+	private void saveMetadata() {
+		SourceSerializer.Dictionary dictionary = serializer.getDictionary();
+		if (dictionary.dirty) {
+			try {
+				recman.update(dictionary.recid, dictionary);
+				dictionary.dirty = false;
+			} catch (Throwable e) {
+				Log.logError("Could not store metric dictionary", e);
+			}
+		}
+		for (HandleIndex index : indexes.values()) {
+			if (index.dirty && (index.recid != 0)) {
+				try {
+					recman.update(index.recid, index);
+					index.dirty = false;
+				} catch (Throwable e) {
+					Log.logError("Could not store handle index", e);
+				}
+			}
+		}
+	}
+
 	public AbstractMetricSource get(IJavaElement element) {
 		return get(element.getHandleIdentifier());
 	}
 
+	/**
+	 * @param handle
+	 * @return a copy of the stored source that the caller may change (e.g. update it or link it to a parent) without affecting the source kept
+	 *         here and handed to other threads, null if there is none
+	 */
 	public AbstractMetricSource get(String handle) {
+		AbstractMetricSource result = recent.get(handle);
+		if (result != null) {
+			return result.copy();
+		}
+		return fetch(handle);
+	}
+
+	private synchronized AbstractMetricSource fetch(String handle) {
+		AbstractMetricSource result = pending.get(handle);
+		if (result != null) {
+			return result.copy();
+		}
 		try {
-			return (AbstractMetricSource) getHashtableForHandle(handle).get(handle);
+			result = load(getHashtableForHandle(handle), handle);
+			if (result != null) {
+				recent.put(result.copy());
+			}
+			return result;
 		} catch (Throwable e) {
 			Log.logError("Error fetching data for " + handle, e);
 			return null;
 		}
 	}
 
-	public void remove(String handle) {
+	public synchronized void remove(String handle) {
+		recent.remove(handle);
+		pending.remove(handle);
 		try {
-			getHashtableForHandle(handle).remove(handle);
-			getKeysForHandle(handle).remove(handle);
+			delete(getHashtableForHandle(handle), handle);
+			getIndexForHandle(handle).remove(handle);
 		} catch (Throwable e) {
 			Log.logError("Could not remove " + handle, e);
 		}
 	}
 
-	public void removeSubtree(String handle) {
+	public synchronized void removeSubtree(String handle) {
 		HTree h = getHashtableForHandle(handle);
 		if (h != null) {
-			Set<String> handles = getKeysForHandle(handle);
-			for (Iterator<String> i = handles.iterator(); i.hasNext();) {
-				String next = i.next();
-				if (next.startsWith(handle)) {
-					try {
-						h.remove(next);
-						i.remove();
-					} catch (Throwable e) {
-						// doesn't seem to be a severe problem, don't log
-						Log.logError("Could not remove " + next, e);
-					}
+			for (String next : getIndexForHandle(handle).removeSubtree(handle)) {
+				recent.remove(next);
+				pending.remove(next);
+				try {
+					delete(h, next);
+				} catch (Throwable e) {
+					// doesn't seem to be a severe problem, don't log
+					Log.logError("Could not remove " + next, e);
 				}
 			}
 		}
 	}
 
-	public void close() {
+	public synchronized void close() {
+		closed = true;
+		stopFlusher();
+		flush();
 		try {
 			recman.close();
-			keys.clear();
+			indexes.clear();
 			projects.clear();
+			recent.clear();
 		} catch (Throwable e) {
 			Log.logError("Could not close jdbm database", e);
 		}
@@ -224,31 +500,70 @@ public class Cache {
 	 * 
 	 * @param projectName
 	 */
-	public void clear(String projectName) {
+	public synchronized void clear(String projectName) {
 		try {
-			keys.remove(projectName);
+			indexes.remove(projectName);
+			projects.remove(projectName);
+			recent.remove("=" + projectName);
+			recent.removeAll("=" + projectName + "/");
+			for (Iterator<String> i = pending.keySet().iterator(); i.hasNext();) {
+				String next = i.next();
+				if (next.equals("=" + projectName) || next.startsWith("=" + projectName + "/")) {
+					i.remove();
+				}
+			}
 			long id = recman.getNamedObject(projectName);
 			if (id != 0) {
+				deleteRecords(HTree.load(recman, id));
 				recman.delete(id);
 				HTree hashtable = HTree.createInstance(recman);
 				recman.setNamedObject(projectName, hashtable.getRecid());
-				recman.commit();
+				// the new hashtable is empty, so whatever format the old one had, it is current now
+				setFormat(projectName);
 			}
+			id = recman.getNamedObject(projectName + INDEX_SUFFIX);
+			if (id != 0) {
+				recman.delete(id);
+				recman.setNamedObject(projectName + INDEX_SUFFIX, 0);
+			}
+			recman.commit();
 		} catch (Throwable e) {
 			Log.logError("Could not clear project " + projectName, e);
 		}
 	}
 
+	private void deleteRecords(HTree hashtable) throws IOException {
+		List<Long> recids = new ArrayList<Long>();
+		try {
+			FastIterator it = hashtable.values();
+			Object next = it.next();
+			while (next != null) {
+				if (next instanceof Long) {
+					recids.add((Long) next);
+				}
+				next = it.next();
+			}
+		} catch (IterationException e) {
+			// ok
+		}
+		for (Long next : recids) {
+			recman.delete(next.longValue());
+		}
+	}
+
 	/**
 	 * clean out entire database
 	 */
-	public void clear() {
+	public synchronized void clear() {
 		try {
+			pending.clear();
 			recman.close();
 			File db = new File(pluginDir + DBNAME);
 			db.delete();
 			initRecordManager();
-			keys.clear();
+			indexes.clear();
+			projects.clear();
+			recent.clear();
 		} catch (Throwable e) {
 			Log.logError("Error deleting database", e);
 		}
@@ -256,14 +571,24 @@ public class Cache {
 	}
 
 	/**
-	 * 
+	 * @param budget
+	 *            estimated size in bytes of the recently used sources kept in memory
 	 */
-	public void commit() {
-		try {
-			recman.commit();
-		} catch (Throwable e) {
-			Log.logError("Could not commit latest changes.", e);
-		}
+	public void setMemoryBudget(long budget) {
+		recent.setBudget(budget);
+	}
+
+	/**
+	 * @return hits, misses and evictions of the recently used sources
+	 */
+	public String getStatistics() {
+		return recent.toString();
+	}
 
+	/**
+	 * @see #flush()
+	 */
+	public synchronized void commit() {
+		flush();
 	}
 }
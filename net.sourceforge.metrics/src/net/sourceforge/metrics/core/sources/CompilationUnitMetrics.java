@@ -21,10 +21,12 @@
 
 package net.sourceforge.metrics.core.sources;
 
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.metrics.core.ICalculator;
 import net.sourceforge.metrics.core.Log;
@@ -52,8 +54,31 @@ public class CompilationUnitMetrics extends AbstractMetricSource {
 
 	static final long serialVersionUID = 5392710341493985195L;
 
+	/**
+	 * language level of every AST parsed for metrics, shared with the batch parser of the builder
+	 */
+	@SuppressWarnings("deprecation")
+	public static final int AST_LEVEL = AST.JLS8;
+
 	transient private CompilationUnit astNode;
 
+	/**
+	 * hash of the source these metrics were calculated from
+	 */
+	private String fingerprint = null;
+
+	/**
+	 * keys of the values stored by the calculators of this compilation unit and its descendants, by calculator stamp
+	 * 
+	 * @see StoredResults
+	 */
+	private Map<String, Set<String>> outputs = null;
+
+	/**
+	 * handles of the packages containing types referenced from this compilation unit
+	 */
+	private Set<String> dependencies = null;
+
 	public CompilationUnitMetrics() {
 		super();
 	}
@@ -77,10 +102,15 @@ public class CompilationUnitMetrics extends AbstractMetricSource {
 		} catch (Throwable e) {
 			Log.logError("Could not delete markers", e);
 		}
-		astNode = getAST();
+		fingerprint = getFingerprint(unit);
+		if (astNode == null) {
+			astNode = getAST();
+		}
 		if (metricsInterruptus()) {
 			return;
 		}
+		dependencies = PackageDependencies.extract(astNode, unit.getParent().getHandleIdentifier());
+		PackageDependencies.singleton.setDependencies(unit.getHandleIdentifier(), dependencies);
 		List<?> types = astNode.types();
 		int interfaces = 0;
 		for (Iterator<?> i = types.iterator(); i.hasNext();) {
@@ -122,7 +152,7 @@ public class CompilationUnitMetrics extends AbstractMetricSource {
 
 	private CompilationUnit getAST() {
 		try {
-			ASTParser parser = ASTParser.newParser(AST.JLS8);
+			ASTParser parser = ASTParser.newParser(AST_LEVEL);
 			parser.setSource((ICompilationUnit) getJavaElement());
 			parser.setResolveBindings(true);
 			return (CompilationUnit) parser.createAST(null);
@@ -136,6 +166,108 @@ public class CompilationUnitMetrics extends AbstractMetricSource {
 		}
 	}
 
+	/**
+	 * Hash the source of the compilation unit, so that metrics can be reused as long as the source did not change.
+	 * 
+	 * @param unit
+	 * @return hex encoded MD5 hash or null if the source is not available
+	 */
+	public static String getFingerprint(ICompilationUnit unit) {
+		try {
+			String source = unit.getSource();
+			if (source == null) {
+				return null;
+			}
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(source.getBytes("UTF-8"));
+			byte[] hash = digest.digest();
+			StringBuffer b = new StringBuffer(hash.length * 2);
+			for (byte element : hash) {
+				b.append(Character.forDigit((element >> 4) & 0xF, 16));
+				b.append(Character.forDigit(element & 0xF, 16));
+			}
+			return b.toString();
+		} catch (Throwable e) {
+			Log.logError("Could not calculate fingerprint of " + unit.getHandleIdentifier(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the fingerprint of the source these metrics were calculated from
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @return handles of the packages (other than its own) containing types referenced from this compilation unit
+	 * @see PackageDependencies
+	 */
+	public Set<String> getDependencies() {
+		return dependencies;
+	}
+
+	void setDependencies(Set<String> dependencies) {
+		this.dependencies = dependencies;
+	}
+
+	/**
+	 * @return the keys of the values stored by each calculator (by calculator stamp), null if not recorded
+	 */
+	public Map<String, Set<String>> getOutputs() {
+		return outputs;
+	}
+
+	void setOutputs(Map<String, Set<String>> outputs) {
+		this.outputs = outputs;
+	}
+
+	/**
+	 * @param unit
+	 * @return true if unit still has the source these metrics were calculated from
+	 */
+	public boolean isSourceUnchanged(ICompilationUnit unit) {
+		return (fingerprint != null) && fingerprint.equals(getFingerprint(unit));
+	}
+
+	/**
+	 * @param unit
+	 * @return true if unit still has the source these metrics were calculated from and they were calculated by the current calculators
+	 * @see MetricsPlugin#getCalculatorStamp(ICalculator)
+	 */
+	public boolean isUpToDate(ICompilationUnit unit) {
+		return (outputs != null) && outputs.keySet().equals(StoredResults.getStamps(HandleDictionary.getProjectName(getHandle()))) && isSourceUnchanged(unit);
+	}
+
+	/**
+	 * record the values stored by the calculators if the builder did not start recording them already
+	 * 
+	 * @see net.sourceforge.metrics.core.sources.AbstractMetricSource#recurse(net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	@Override
+	public void recurse(AbstractMetricSource parent) {
+		boolean began = StoredResults.begin(null);
+		try {
+			super.recurse(parent);
+		} finally {
+			if (began) {
+				StoredResults.end();
+			}
+		}
+	}
+
+	@Override
+	protected void save() {
+		StoredResults results = StoredResults.get();
+		outputs = (results == null) ? null : results.getOutputs(this);
+		super.save();
+	}
+
 	/**
 	 * Returns the astNode.
 	 * 
@@ -150,6 +282,15 @@ public class CompilationUnitMetrics extends AbstractMetricSource {
 		return astNode;
 	}
 
+	/**
+	 * Use an AST that was already parsed (with bindings) instead of parsing the compilation unit again
+	 * 
+	 * @param astNode
+	 */
+	void setAstNode(CompilationUnit astNode) {
+		this.astNode = astNode;
+	}
+
 	/**
 	 * @see net.sourceforge.metrics.core.sources.AbstractMetricSource#getLevel()
 	 */
@@ -163,7 +304,7 @@ public class CompilationUnitMetrics extends AbstractMetricSource {
 	 */
 	@Override
 	protected List<ICalculator> getCalculators() {
-		return MetricsPlugin.getDefault().getCalculators("compilationUnit");
+		return getCalculators("compilationUnit");
 	}
 
 	/*
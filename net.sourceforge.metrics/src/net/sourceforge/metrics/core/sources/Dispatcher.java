@@ -35,6 +35,7 @@ import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 
 /**
  * Based on the current selection figure out what metric source to create and instruct to calculate metrics, or simply pick up from the cache and use it.
@@ -47,7 +48,7 @@ public class Dispatcher {
 
 	private Map<Class<? extends IJavaElement >, Class<? extends AbstractMetricSource>> sourcemap = null;
 
-	protected Map<Class<? extends IJavaElement >, Class<? extends AbstractMetricSource>> getSourceMap() {
+	protected synchronized Map<Class<? extends IJavaElement >, Class<? extends AbstractMetricSource>> getSourceMap() {
 		if (sourcemap == null) {
 			sourcemap = new HashMap<Class<? extends IJavaElement >, Class<? extends AbstractMetricSource>>();
 			initMetrics();
@@ -116,6 +117,27 @@ public class Dispatcher {
 		return m;
 	}
 
+	/**
+	 * Get the metrics for the given compilation unit from cache or create a new one and have it calculate the metrics from an AST parsed ahead of time,
+	 * e.g. by a batch parse of all compilation units of a source folder.
+	 * 
+	 * @param input
+	 * @param ast
+	 *            AST of input, parsed with bindings
+	 * @return AbstractMetricSource
+	 */
+	public static AbstractMetricSource calculateAbstractMetricSource(ICompilationUnit input, CompilationUnit ast) {
+		AbstractMetricSource m = getAbstractMetricSource(input);
+		if (m == null) {
+			CompilationUnitMetrics cu = (CompilationUnitMetrics) singleton.createNewSource(input);
+			cu.setJavaElement(input);
+			cu.setAstNode(ast);
+			cu.recurse(null);
+			m = Cache.singleton.get(input);
+		}
+		return m;
+	}
+
 	/**
 	 * Get the AbstractMetricSource for the given IJavaElement from cache or create a new one and have it calculate the metrics. This method will give the parent AbstractMetricSource a chance to initialize the new element (in cas e anew one
 	 * is created) with the given data.
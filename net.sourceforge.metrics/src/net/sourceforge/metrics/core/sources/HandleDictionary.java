@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.JavaCore;
+
+/**
+ * Numbers the java element handles seen since startup, so every handle is kept in memory only once however many metric sources, child lists and
+ * maxima refer to it. Ids start at 1 and are never reused, 0 means no handle. Also remembers the java elements created from the handles for as long
+ * as anybody uses them, so handles aren't parsed again and again. Handles of removed elements are forgotten, see remove().
+ * 
+ * @author Frank Sauer
+ */
+public class HandleDictionary {
+
+	public final static HandleDictionary singleton = new HandleDictionary();
+
+	private Map<Integer, String> handles = new HashMap<Integer, String>();
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private Map<Integer, WeakReference<IJavaElement>> elements = new HashMap<Integer, WeakReference<IJavaElement>>();
+	// all handles in sorted order, so the descendants of a handle are found in the range of handles starting with it
+	private TreeSet<String> sorted = new TreeSet<String>();
+	private int nextId = 1;
+
+	public HandleDictionary() {
+		super();
+	}
+
+	/**
+	 * @param handle
+	 * @return the id of the handle, 0 for null
+	 */
+	public synchronized int getId(String handle) {
+		if (handle == null) {
+			return 0;
+		}
+		Integer id = ids.get(handle);
+		if (id == null) {
+			id = Integer.valueOf(nextId++);
+			handles.put(id, handle);
+			ids.put(handle, id);
+			sorted.add(handle);
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * @param id
+	 * @return the handle with the given id, null for 0, an unknown id or the id of a removed handle
+	 */
+	public synchronized String getHandle(int id) {
+		return (id > 0) ? handles.get(Integer.valueOf(id)) : null;
+	}
+
+	/**
+	 * @param handle
+	 * @return the equal handle kept by the dictionary
+	 */
+	public String intern(String handle) {
+		return getHandle(getId(handle));
+	}
+
+	/**
+	 * @param handle
+	 * @return the java element for the handle, the same instance as last time if it is still in use
+	 */
+	public IJavaElement getElement(String handle) {
+		Integer id = Integer.valueOf(getId(handle));
+		synchronized (this) {
+			WeakReference<IJavaElement> ref = elements.get(id);
+			IJavaElement element = (ref == null) ? null : ref.get();
+			if (element != null) {
+				return element;
+			}
+		}
+		IJavaElement element = JavaCore.create(handle);
+		if (element != null) {
+			synchronized (this) {
+				// unless the handle was removed meanwhile
+				if (handles.containsKey(id)) {
+					elements.put(id, new WeakReference<IJavaElement>(element));
+				}
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * forget the given handle and its descendants, their ids and java elements, e.g. because they were deleted or moved. Only the handles
+	 * starting with the given one are looked at. Their ids are not reused, so maxima still referring to them answer no handle instead of a
+	 * wrong one.
+	 * 
+	 * @param handle
+	 */
+	public synchronized void remove(String handle) {
+		for (Iterator<String> i = sorted.subSet(handle, handle + Character.MAX_VALUE).iterator(); i.hasNext();) {
+			String next = i.next();
+			if (next.equals(handle) || HandleIndex.isDescendant(next, handle)) {
+				i.remove();
+				Integer id = ids.remove(next);
+				handles.remove(id);
+				elements.remove(id);
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return handles.size();
+	}
+
+	/**
+	 * Find the project name in a handle without creating the java element, see JavaElement.getHandleMemento
+	 * 
+	 * @param handle
+	 * @return the (unescaped) name of the project the handle belongs to, null if it doesn't start with a project
+	 */
+	public static String getProjectName(String handle) {
+		if ((handle == null) || !handle.startsWith("=")) {
+			return null;
+		}
+		StringBuffer b = new StringBuffer();
+		for (int i = 1; i < handle.length(); i++) {
+			char c = handle.charAt(i);
+			if (c == '\\') {
+				i++;
+				if (i < handle.length()) {
+					b.append(handle.charAt(i));
+				}
+			} else if (HandleIndex.DELIMITERS.indexOf(c) >= 0) {
+				break;
+			} else {
+				b.append(c);
+			}
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.sourceforge.metrics.core.Constants;
+
+/**
+ * Sorted index of all handles stored for one project. Because a java element handle starts with the handle of its parent, all descendants of an element form a contiguous range in the index and can be found without looking at the rest of the project. The level of every handle is kept as well, so that the direct children can be told apart from deeper descendants.
+ * 
+ * @author Frank Sauer
+ */
+public class HandleIndex implements Serializable {
+
+	static final long serialVersionUID = -4117926541587305613L;
+
+	/**
+	 * characters that start a new element in a java element handle (see JavaElement.JEM_*)
+	 */
+	static final String DELIMITERS = "=/<{[~^|(%#@]})&'`";
+
+	private TreeMap<String, Integer> levels = new TreeMap<String, Integer>();
+
+	transient long recid = 0;
+	transient boolean dirty = false;
+
+	public HandleIndex() {
+		super();
+	}
+
+	public void add(String handle, int level) {
+		Integer old = levels.put(handle, Integer.valueOf(level));
+		if ((old == null) || (old.intValue() != level)) {
+			dirty = true;
+		}
+	}
+
+	public boolean remove(String handle) {
+		if (levels.remove(handle) != null) {
+			dirty = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * remove the given handle and all its descendants
+	 * 
+	 * @param handle
+	 * @return the removed handles
+	 */
+	public List<String> removeSubtree(String handle) {
+		List<String> result = getDescendants(handle);
+		if (remove(handle)) {
+			result.add(0, handle);
+		}
+		for (String next : result) {
+			levels.remove(next);
+		}
+		if (!result.isEmpty()) {
+			dirty = true;
+		}
+		return result;
+	}
+
+	public boolean contains(String handle) {
+		return levels.containsKey(handle);
+	}
+
+	public int size() {
+		return levels.size();
+	}
+
+	/**
+	 * @param handle
+	 * @return all handles below the given handle, in sorted order
+	 */
+	public List<String> getDescendants(String handle) {
+		return collect(handle, false);
+	}
+
+	/**
+	 * @param handle
+	 * @return the handles directly below the given handle, in sorted order
+	 */
+	public List<String> getChildren(String handle) {
+		return collect(handle, true);
+	}
+
+	private List<String> collect(String handle, boolean direct) {
+		List<String> result = new ArrayList<String>();
+		// children that are a prefix of the current position, innermost last
+		LinkedList<String> children = new LinkedList<String>();
+		String from = handle;
+		while (true) {
+			SortedMap<String, Integer> tail = levels.tailMap(from);
+			if (tail.isEmpty()) {
+				break;
+			}
+			String next = tail.firstKey();
+			if (!next.startsWith(handle)) {
+				break;
+			}
+			if (next.length() == handle.length()) {
+				from = next + '\0';
+			} else if (!isDescendant(next, handle)) {
+				// e.g. package a.bc when looking for a.b, skip all of them
+				from = skip(handle, next);
+			} else {
+				String parent = direct ? getEnclosing(children, next) : null;
+				if (parent != null) {
+					from = skip(parent, next);
+				} else {
+					result.add(next);
+					if (direct && (tail.get(next).intValue() > Constants.METHOD)) {
+						children.addLast(next);
+					}
+					from = next + '\0';
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the element in children that next is a descendant of, or null if next is a child itself
+	 */
+	private static String getEnclosing(LinkedList<String> children, String next) {
+		while (!children.isEmpty() && !next.startsWith(children.getLast())) {
+			children.removeLast();
+		}
+		for (String child : children) {
+			if (isDescendant(next, child)) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the first possible handle after all handles that start with prefix and continue like next does
+	 */
+	private static String skip(String prefix, String next) {
+		char c = next.charAt(prefix.length());
+		return prefix + (char) (c + 1);
+	}
+
+	/**
+	 * Method parameters use the same delimiter as the method itself, so methods are never considered to have descendants by collect()
+	 * 
+	 * @param handle
+	 * @param ancestor
+	 * @return true if handle denotes an element below ancestor
+	 */
+	public static boolean isDescendant(String handle, String ancestor) {
+		return (handle.length() > ancestor.length()) && handle.startsWith(ancestor) && (DELIMITERS.indexOf(handle.charAt(ancestor.length())) >= 0);
+	}
+}
@@ -20,12 +20,15 @@
  */
 package net.sourceforge.metrics.core.sources;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import net.sourceforge.metrics.calculators.FusedMethodVisitor;
+import net.sourceforge.metrics.calculators.IFusedCalculator;
 import net.sourceforge.metrics.core.ICalculator;
 import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.MetricsPlugin;
@@ -164,7 +167,39 @@ public class MethodMetrics extends AbstractMetricSource {
 	 */
 	@Override
 	protected List<ICalculator> getCalculators() {
-		return MetricsPlugin.getDefault().getCalculators("method");
+		return getCalculators("method");
+	}
+
+	/**
+	 * Runs all IFusedCalculators in a single traversal of the method body first, then the remaining calculators one by one
+	 * 
+	 * @see net.sourceforge.metrics.core.sources.AbstractMetricSource#invokeCalculators()
+	 */
+	@Override
+	protected void invokeCalculators() {
+		List<ICalculator> calculators = getCalculators();
+		List<IFusedCalculator> fused = new ArrayList<IFusedCalculator>(calculators.size());
+		List<ICalculator> others = new ArrayList<ICalculator>(calculators.size());
+		for (ICalculator c : calculators) {
+			if ((c instanceof IFusedCalculator) && !MetricsPlugin.isSerial(c)) {
+				fused.add((IFusedCalculator) c);
+			} else {
+				others.add(c);
+			}
+		}
+		if (!fused.isEmpty()) {
+			if (metricsInterruptus()) {
+				return;
+			}
+			try {
+				FusedMethodVisitor.calculate(this, fused);
+			} catch (OutOfMemoryError m) {
+				throw m;
+			} catch (Throwable e) {
+				Log.logError("Error running calculators for " + getJavaElement().getHandleIdentifier(), e);
+			}
+		}
+		invokeCalculators(others);
 	}
 
 	/**
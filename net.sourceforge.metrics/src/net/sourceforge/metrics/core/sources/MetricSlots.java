@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.MetricRegistry;
+
+/**
+ * Storage of the values, averages or maxima of a metric source. The metrics are kept in an array indexed by their MetricRegistry slots, one row
+ * per scope for averages and maxima, so get(name, per) and put(metric) do not hash or concatenate strings. The Map view keeps the string keys
+ * of the former HashMaps (the id for values, scope followed by id for averages and maxima) for the serializers and the views.
+ * 
+ * @author Frank Sauer
+ */
+class MetricSlots<V extends Metric> extends AbstractMap<String, V> implements Serializable {
+
+	private static final long serialVersionUID = -1858391440541339627L;
+	private static final Metric[][] EMPTY = new Metric[0][];
+
+	private final boolean scoped;
+	private transient Metric[][] rows = EMPTY;
+	private transient int size = 0;
+	private transient Set<Map.Entry<String, V>> entries = null;
+	// row and slot of every put() since startJournal(), null until the first one
+	private transient boolean journaling = false;
+	private transient int[] journal = null;
+	private transient int journalSize = 0;
+
+	/**
+	 * @param scoped
+	 *            true to key the metrics by their per and name (averages and maxima), false to key them by name only
+	 */
+	MetricSlots(boolean scoped) {
+		this.scoped = scoped;
+	}
+
+	/**
+	 * @param name
+	 * @param per
+	 *            ignored unless scoped
+	 * @return the metric stored for name (and per), null if none
+	 */
+	V get(String name, String per) {
+		MetricRegistry registry = MetricRegistry.singleton;
+		return at(scoped ? registry.findScopeSlot(per) : 0, registry.findSlot(name));
+	}
+
+	/**
+	 * Stores the metric under its own name (and per), replacing the previous one
+	 * 
+	 * @param value
+	 */
+	void put(V value) {
+		MetricRegistry registry = MetricRegistry.singleton;
+		int row = scoped ? registry.getScopeSlot(value.getPer()) : 0;
+		int slot = registry.getSlot(value.getName());
+		if (row >= rows.length) {
+			Metric[][] grown = new Metric[row + 1][];
+			System.arraycopy(rows, 0, grown, 0, rows.length);
+			rows = grown;
+		}
+		Metric[] cells = rows[row];
+		if ((cells == null) || (slot >= cells.length)) {
+			Metric[] grown = new Metric[Math.max(slot + 1, registry.size())];
+			if (cells != null) {
+				System.arraycopy(cells, 0, grown, 0, cells.length);
+			}
+			cells = grown;
+			rows[row] = cells;
+		}
+		if (cells[slot] == null) {
+			size++;
+		}
+		cells[slot] = value;
+		if (journaling) {
+			if (journal == null) {
+				journal = new int[8];
+			} else if (journalSize == journal.length) {
+				int[] grown = new int[journalSize * 2];
+				System.arraycopy(journal, 0, grown, 0, journalSize);
+				journal = grown;
+			}
+			journal[journalSize++] = row;
+			journal[journalSize++] = slot;
+		}
+	}
+
+	/**
+	 * Start recording the keys of the metrics stored from now on, see endJournal()
+	 */
+	void startJournal() {
+		journaling = true;
+		journal = null;
+		journalSize = 0;
+	}
+
+	/**
+	 * Stop recording
+	 * 
+	 * @param keys
+	 *            receives the keys of the metrics stored since startJournal(), prefixed by prefix. null to drop them
+	 * @param prefix
+	 */
+	void endJournal(Set<String> keys, char prefix) {
+		if (keys != null) {
+			for (int i = 0; i < journalSize; i += 2) {
+				keys.add(prefix + keyOf(journal[i], journal[i + 1]));
+			}
+		}
+		journaling = false;
+		journal = null;
+		journalSize = 0;
+	}
+
+	/**
+	 * @return a copy holding the same metrics, independent of later changes to this one
+	 */
+	MetricSlots<V> copy() {
+		// the journal belongs to the calculator running on this instance
+		MetricSlots<V> copy = new MetricSlots<V>(scoped);
+		copy.rows = new Metric[rows.length][];
+		for (int row = 0; row < rows.length; row++) {
+			if (rows[row] != null) {
+				copy.rows[row] = rows[row].clone();
+			}
+		}
+		copy.size = size;
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V at(int row, int slot) {
+		if ((row < 0) || (slot < 0) || (row >= rows.length)) {
+			return null;
+		}
+		Metric[] cells = rows[row];
+		return ((cells != null) && (slot < cells.length)) ? (V) cells[slot] : null;
+	}
+
+	private int[] find(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		MetricRegistry registry = MetricRegistry.singleton;
+		if (scoped) {
+			return registry.findPair((String) key);
+		}
+		int slot = registry.findSlot((String) key);
+		return (slot < 0) ? null : new int[] { 0, slot };
+	}
+
+	private String keyOf(int row, int slot) {
+		MetricRegistry registry = MetricRegistry.singleton;
+		return scoped ? registry.getKey(row, slot) : registry.getId(slot);
+	}
+
+	@Override
+	public V get(Object key) {
+		int[] pair = find(key);
+		return (pair == null) ? null : at(pair[0], pair[1]);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Stores the value under its own name (and per), key is expected to match them
+	 */
+	@Override
+	public V put(String key, V value) {
+		V old = get(value.getName(), value.getPer());
+		put(value);
+		return old;
+	}
+
+	@Override
+	public V remove(Object key) {
+		int[] pair = find(key);
+		V old = (pair == null) ? null : at(pair[0], pair[1]);
+		if (old != null) {
+			rows[pair[0]][pair[1]] = null;
+			size--;
+		}
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		rows = EMPTY;
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		if (entries == null) {
+			entries = new AbstractSet<Map.Entry<String, V>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, V>> iterator() {
+					return new Cursor();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entries;
+	}
+
+	private class Cursor implements Iterator<Map.Entry<String, V>> {
+
+		private int row = 0;
+		private int slot = -1;
+		private int lastRow = -1;
+		private int lastSlot = -1;
+
+		Cursor() {
+			advance();
+		}
+
+		private void advance() {
+			slot++;
+			while (row < rows.length) {
+				Metric[] cells = rows[row];
+				if (cells != null) {
+					while (slot < cells.length) {
+						if (cells[slot] != null) {
+							return;
+						}
+						slot++;
+					}
+				}
+				row++;
+				slot = 0;
+			}
+		}
+
+		public boolean hasNext() {
+			return row < rows.length;
+		}
+
+		public Map.Entry<String, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			lastRow = row;
+			lastSlot = slot;
+			advance();
+			return new AbstractMap.SimpleImmutableEntry<String, V>(keyOf(lastRow, lastSlot), at(lastRow, lastSlot));
+		}
+
+		public void remove() {
+			if ((lastRow < 0) || (rows[lastRow][lastSlot] == null)) {
+				throw new IllegalStateException();
+			}
+			rows[lastRow][lastSlot] = null;
+			size--;
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (V value : values()) {
+			out.writeObject(value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		rows = EMPTY;
+		size = 0;
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			put((V) in.readObject());
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.sourceforge.metrics.core.Log;
+
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.eclipse.jdt.core.dom.SimpleName;
+
+/**
+ * The package dependency graph of all compilation units calculated so far. Each compilation unit records the packages of the types it references
+ * while its AST is visited (see extract), so afferent and efferent couplings of a package can be answered from this graph instead of searching the
+ * workspace for every package. The graph is kept in memory and filled from the Cache the first time a project is queried after a restart.
+ * 
+ * @author Frank Sauer
+ */
+public class PackageDependencies {
+
+	public final static PackageDependencies singleton = new PackageDependencies();
+
+	// compilation unit handle -> handles of the packages it references, sorted so a package's units are a range
+	private SortedMap<String, Set<String>> references = new TreeMap<String, Set<String>>();
+	// package handle -> handles of the compilation units referencing it
+	private Map<String, Set<String>> referencedBy = new HashMap<String, Set<String>>();
+	// projects whose compilation units are in the graph
+	private Set<String> loaded = new HashSet<String>();
+
+	private PackageDependencies() {
+		super();
+	}
+
+	/**
+	 * Collect the handles of all packages, other than its own, that contain a type referenced by the given compilation unit
+	 * 
+	 * @param ast
+	 *            AST with resolved bindings
+	 * @param packageHandle
+	 *            handle of the unit's own package
+	 * @return sorted package handles
+	 */
+	public static Set<String> extract(CompilationUnit ast, String packageHandle) {
+		Extractor extractor = new Extractor(packageHandle);
+		ast.accept(extractor);
+		return extractor.packages;
+	}
+
+	/**
+	 * record the dependencies of a (re)calculated compilation unit
+	 * 
+	 * @param unitHandle
+	 * @param packages
+	 *            handles of the referenced packages
+	 */
+	public synchronized void setDependencies(String unitHandle, Set<String> packages) {
+		removeUnit(unitHandle);
+		if (packages == null) {
+			return;
+		}
+		references.put(unitHandle, packages);
+		for (String next : packages) {
+			Set<String> units = referencedBy.get(next);
+			if (units == null) {
+				units = new HashSet<String>();
+				referencedBy.put(next, units);
+			}
+			units.add(unitHandle);
+		}
+	}
+
+	/**
+	 * forget the dependencies of the element and all compilation units below it
+	 * 
+	 * @param handle
+	 */
+	public synchronized void remove(String handle) {
+		for (String next : getUnits(handle).keySet().toArray(new String[0])) {
+			removeUnit(next);
+		}
+	}
+
+	/**
+	 * forget all dependencies recorded for a project, done before the project is built from scratch
+	 * 
+	 * @param projectHandle
+	 */
+	public synchronized void clear(String projectHandle) {
+		remove(projectHandle);
+		loaded.add(projectHandle);
+	}
+
+	public synchronized void clear() {
+		references.clear();
+		referencedBy.clear();
+		loaded.clear();
+	}
+
+	/**
+	 * @param packageHandle
+	 * @return the number of compilation units outside the package that reference a type inside it (Ca)
+	 */
+	public synchronized int getAfferentCoupling(String packageHandle) {
+		Set<String> units = referencedBy.get(packageHandle);
+		return (units == null) ? 0 : units.size();
+	}
+
+	/**
+	 * @param packageHandle
+	 * @return compilation unit handle -> referenced package handles for all compilation units of the package
+	 */
+	public synchronized Map<String, Set<String>> getEfferentDependencies(String packageHandle) {
+		return new TreeMap<String, Set<String>>(getUnits(packageHandle));
+	}
+
+	/**
+	 * Make sure the dependencies of all compilation units of the project are in the graph, by reading those that were not calculated in this session
+	 * from the cache.
+	 * 
+	 * @param projectHandle
+	 */
+	public synchronized void load(String projectHandle) {
+		if (!loaded.add(projectHandle)) {
+			return;
+		}
+		for (String next : Cache.singleton.getDescendants(projectHandle)) {
+			if (references.containsKey(next)) {
+				continue;
+			}
+			IJavaElement element = JavaCore.create(next);
+			if ((element != null) && (element.getElementType() == IJavaElement.COMPILATION_UNIT)) {
+				AbstractMetricSource source = Cache.singleton.get(next);
+				if (source instanceof CompilationUnitMetrics) {
+					setDependencies(next, ((CompilationUnitMetrics) source).getDependencies());
+				}
+			}
+		}
+	}
+
+	private SortedMap<String, Set<String>> getUnits(String handle) {
+		SortedMap<String, Set<String>> result = new TreeMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> next : references.tailMap(handle).entrySet()) {
+			String unit = next.getKey();
+			if (!unit.startsWith(handle)) {
+				break;
+			}
+			if (unit.equals(handle) || HandleIndex.isDescendant(unit, handle)) {
+				result.put(unit, next.getValue());
+			}
+		}
+		return result;
+	}
+
+	private void removeUnit(String unitHandle) {
+		Set<String> packages = references.remove(unitHandle);
+		if (packages != null) {
+			for (String next : packages) {
+				Set<String> units = referencedBy.get(next);
+				if (units != null) {
+					units.remove(unitHandle);
+					if (units.isEmpty()) {
+						referencedBy.remove(next);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps every name resolving to a type onto the package fragment of that type
+	 */
+	private static class Extractor extends ASTVisitor {
+
+		private final String ownPackage;
+		private Set<String> packages = new TreeSet<String>();
+		private Set<ITypeBinding> seen = new HashSet<ITypeBinding>();
+
+		Extractor(String ownPackage) {
+			this.ownPackage = ownPackage;
+		}
+
+		@Override
+		public boolean visit(SimpleName node) {
+			IBinding binding = node.resolveBinding();
+			if ((binding != null) && (binding.getKind() == IBinding.TYPE)) {
+				addType((ITypeBinding) binding);
+			}
+			return false;
+		}
+
+		private void addType(ITypeBinding type) {
+			if (type.isArray()) {
+				type = type.getElementType();
+			}
+			type = type.getErasure();
+			if (type.isPrimitive() || type.isTypeVariable() || type.isWildcardType() || type.isCapture() || !seen.add(type)) {
+				return;
+			}
+			try {
+				IJavaElement element = type.getJavaElement();
+				IJavaElement pkg = (element == null) ? null : element.getAncestor(IJavaElement.PACKAGE_FRAGMENT);
+				if (pkg != null) {
+					String handle = pkg.getHandleIdentifier();
+					if (!handle.equals(ownPackage)) {
+						packages.add(handle);
+					}
+				}
+			} catch (RuntimeException e) {
+				Log.logError("Could not resolve the package of " + type.getQualifiedName(), e);
+			}
+		}
+	}
+}
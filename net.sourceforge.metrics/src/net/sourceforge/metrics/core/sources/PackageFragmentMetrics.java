@@ -25,7 +25,6 @@ import java.util.Set;
 
 import net.sourceforge.metrics.core.ICalculator;
 import net.sourceforge.metrics.core.Log;
-import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.internal.xml.IXMLExporter;
 
 import org.eclipse.jdt.core.ICompilationUnit;
@@ -90,7 +89,7 @@ public class PackageFragmentMetrics extends AbstractMetricSource {
 	 */
 	@Override
 	protected List<ICalculator> getCalculators() {
-		return MetricsPlugin.getDefault().getCalculators("packageFragment");
+		return getCalculators("packageFragment");
 	}
 
 	/*
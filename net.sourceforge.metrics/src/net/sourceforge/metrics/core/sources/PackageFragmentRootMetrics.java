@@ -28,7 +28,6 @@ import java.util.Set;
 import net.sourceforge.metrics.core.ICalculator;
 import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.Metric;
-import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.internal.xml.IXMLExporter;
 
 import org.eclipse.jdt.core.IJavaElement;
@@ -92,6 +91,23 @@ public class PackageFragmentRootMetrics extends AbstractMetricSource implements
 		createDependencyGraph();
 	}
 
+	/**
+	 * @see net.sourceforge.metrics.core.sources.AbstractMetricSource#childrenUpdated(java.util.List)
+	 */
+	@Override
+	protected void childrenUpdated(List<AbstractMetricSource[]> changes) {
+		setValue(new Metric(NUM_PACKAGES, getChildHandles().size()));
+		efferent = (efferent == null) ? new HashMap<String, Set<String>>() : new HashMap<String, Set<String>>(efferent);
+		for (AbstractMetricSource[] change : changes) {
+			if (change[0] != null) {
+				efferent.remove(change[0].getName());
+			}
+			if (change[1] != null) {
+				efferent.put(change[1].getName(), ((PackageFragmentMetrics) change[1]).getEfferentDependencies());
+			}
+		}
+	}
+
 	/**
 	 * 
 	 */
@@ -119,7 +135,7 @@ public class PackageFragmentRootMetrics extends AbstractMetricSource implements
 	 */
 	@Override
 	protected List<ICalculator> getCalculators() {
-		return MetricsPlugin.getDefault().getCalculators("packageFragmentRoot");
+		return getCalculators("packageFragmentRoot");
 	}
 
 	/*
@@ -139,6 +155,10 @@ public class PackageFragmentRootMetrics extends AbstractMetricSource implements
 		return efferent;
 	}
 
+	void setEfferent(Map<String, Set<String>> efferent) {
+		this.efferent = efferent;
+	}
+
 	@Override
 	public ASTNode getASTNode() {
 		return null;
@@ -28,7 +28,6 @@ import java.util.Set;
 
 import net.sourceforge.metrics.core.ICalculator;
 import net.sourceforge.metrics.core.Log;
-import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.internal.xml.IXMLExporter;
 
 import org.eclipse.jdt.core.IJavaElement;
@@ -86,7 +85,7 @@ public class ProjectMetrics extends AbstractMetricSource implements IGraphContri
 	 */
 	@Override
 	protected List<ICalculator> getCalculators() {
-		return MetricsPlugin.getDefault().getCalculators("project");
+		return getCalculators("project");
 	}
 
 	/**
@@ -130,6 +129,25 @@ public class ProjectMetrics extends AbstractMetricSource implements IGraphContri
 		}
 	}
 
+	/**
+	 * merge the efferent dependency graphs of my child sourcefolders from the Cache, they are few
+	 * 
+	 * @see net.sourceforge.metrics.core.sources.AbstractMetricSource#childrenUpdated(java.util.List)
+	 */
+	@Override
+	protected void childrenUpdated(List<AbstractMetricSource[]> changes) {
+		efferent = new HashMap<String, Set<String>>();
+		for (String handle : getChildHandles()) {
+			AbstractMetricSource next = Cache.singleton.get(handle);
+			if (next instanceof PackageFragmentRootMetrics) {
+				Map<String, Set<String>> eff = ((PackageFragmentRootMetrics) next).getEfferent();
+				if (eff != null) {
+					addEfferent(eff);
+				}
+			}
+		}
+	}
+
 	/**
 	 * @param eff
 	 *            dependencies of a single source folder
@@ -157,6 +175,10 @@ public class ProjectMetrics extends AbstractMetricSource implements IGraphContri
 		return efferent;
 	}
 
+	void setEfferent(Map<String, Set<String>> efferent) {
+		this.efferent = efferent;
+	}
+
 	@Override
 	public ASTNode getASTNode() {
 		return null;
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used metric sources, so repeated lookups of the same handles don't go to the database. The size is bounded by an estimate of the
+ * memory the sources take. The handles are spread over independently locked segments, each with its own share of the budget, so threads looking
+ * up different handles don't wait for each other.
+ * 
+ * @author Frank Sauer
+ */
+public class SourceCache {
+
+	// rough sizes in bytes of an object and of a map entry holding a metric
+	private static final int OBJECT_SIZE = 200;
+	private static final int METRIC_SIZE = 80;
+	private static final int SEGMENTS = 16;
+
+	private Segment[] segments;
+
+	/**
+	 * @param budget
+	 *            maximum estimated size in bytes, 0 disables the cache
+	 */
+	public SourceCache(long budget) {
+		this(budget, SEGMENTS);
+	}
+
+	/**
+	 * @param budget
+	 *            maximum estimated size in bytes, 0 disables the cache
+	 * @param count
+	 *            number of segments
+	 */
+	public SourceCache(long budget, int count) {
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment();
+		}
+		setBudget(budget);
+	}
+
+	private Segment getSegment(String handle) {
+		int h = handle.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * @param handle
+	 * @return the cached source, null if it isn't cached
+	 */
+	public AbstractMetricSource get(String handle) {
+		return getSegment(handle).get(handle);
+	}
+
+	public void put(AbstractMetricSource source) {
+		getSegment(source.getHandle()).put(source, weigh(source));
+	}
+
+	public void remove(String handle) {
+		getSegment(handle).remove(handle);
+	}
+
+	/**
+	 * remove all sources whose handle starts with the given prefix
+	 * 
+	 * @param prefix
+	 */
+	public void removeAll(String prefix) {
+		for (Segment segment : segments) {
+			segment.removeAll(prefix);
+		}
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * @param budget
+	 *            maximum estimated size in bytes, 0 disables the cache
+	 */
+	public void setBudget(long budget) {
+		for (Segment segment : segments) {
+			segment.setBudget(budget / segments.length);
+		}
+	}
+
+	/**
+	 * @param source
+	 * @return estimated size of the source in bytes
+	 */
+	static long weigh(AbstractMetricSource source) {
+		long weight = OBJECT_SIZE + 2 * source.getHandle().length();
+		weight += METRIC_SIZE * (source.getValues().size() + source.getAverages().size() + source.getMaxima().size());
+		for (String next : source.getChildHandles()) {
+			weight += 40 + 2 * next.length();
+		}
+		return weight;
+	}
+
+	public int getCount() {
+		int count = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				count += segment.entries.size();
+			}
+		}
+		return count;
+	}
+
+	public long getSize() {
+		long size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	public long getBudget() {
+		long budget = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				budget += segment.budget;
+			}
+		}
+		return budget;
+	}
+
+	public long getHits() {
+		long hits = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+
+	public long getEvictions() {
+		long evictions = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				evictions += segment.evictions;
+			}
+		}
+		return evictions;
+	}
+
+	@Override
+	public String toString() {
+		return "Metrics cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions, " + getCount() + " sources ("
+				+ (getSize() / 1024) + " of " + (getBudget() / 1024) + " KB)";
+	}
+
+	private static class Entry {
+
+		AbstractMetricSource source;
+		long weight;
+
+		Entry(AbstractMetricSource source, long weight) {
+			this.source = source;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * One LRU list with its own lock and share of the budget
+	 */
+	private static class Segment {
+
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		long budget = 0;
+		long size = 0;
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+
+		synchronized AbstractMetricSource get(String handle) {
+			Entry entry = entries.get(handle);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry.source;
+		}
+
+		synchronized void put(AbstractMetricSource source, long weight) {
+			remove(source.getHandle());
+			if (weight > budget) {
+				return;
+			}
+			entries.put(source.getHandle(), new Entry(source, weight));
+			size += weight;
+			evict();
+		}
+
+		synchronized void remove(String handle) {
+			Entry entry = entries.remove(handle);
+			if (entry != null) {
+				size -= entry.weight;
+			}
+		}
+
+		synchronized void removeAll(String prefix) {
+			for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+				Entry next = i.next();
+				if (next.source.getHandle().startsWith(prefix)) {
+					size -= next.weight;
+					i.remove();
+				}
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			size = 0;
+		}
+
+		synchronized void setBudget(long budget) {
+			this.budget = budget;
+			evict();
+		}
+
+		private void evict() {
+			for (Iterator<Entry> i = entries.values().iterator(); (size > budget) && i.hasNext();) {
+				Entry next = i.next();
+				size -= next.weight;
+				i.remove();
+				evictions++;
+			}
+		}
+	}
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jdbm.helper.Serializer;
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.QuantileSketch;
+import net.sourceforge.metrics.core.Sum;
+
+/**
+ * jdbm Serializer that stores an AbstractMetricSource in a compact binary format instead of using java serialization. Metric names and scopes are replaced by small integers from a Dictionary that is stored in the database as well, integral values are written as variable length integers, and child handles only store the part that differs from the previous handle.
+ * <p>
+ * Every record starts with the format version. Records with an unknown version deserialize to null so their metrics are simply calculated again.
+ * 
+ * @author Frank Sauer
+ */
+public class SourceSerializer implements Serializer, Constants {
+
+	static final long serialVersionUID = 6201943772315406522L;
+
+	// 2: fingerprint of compilation units
+	// 3: package dependencies of compilation units
+	// 4: values stored by each calculator of compilation units
+	// 5: percentile sketches of averages
+	// 6: calculator stamps of packages, source folders and projects
+	public static final int VERSION = 6;
+
+	// kinds of metrics, combined with INTEGRAL
+	private static final int METRIC = 0;
+	private static final int SUM = 1;
+	private static final int SUM_NOT_PROPAGATED = 2;
+	private static final int AVG = 3;
+	private static final int MAX = 4;
+	private static final int INTEGRAL = 0x80;
+
+	private Dictionary dictionary;
+
+	public SourceSerializer(Dictionary dictionary) {
+		super();
+		this.dictionary = dictionary;
+	}
+
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @see jdbm.helper.Serializer#serialize(java.lang.Object)
+	 */
+	public byte[] serialize(Object obj) throws IOException {
+		AbstractMetricSource source = (AbstractMetricSource) obj;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(VERSION);
+		out.writeByte(source.getLevel());
+		out.writeBoolean(source.isDoRecurse());
+		String handle = source.getHandle();
+		out.writeUTF(handle);
+		writeMetrics(out, source.getValues().values(), handle);
+		writeMetrics(out, source.getAverages().values(), handle);
+		writeMetrics(out, source.getMaxima().values(), handle);
+		List<String> childHandles = source.getChildHandles();
+		writeInt(out, childHandles.size());
+		String previous = handle;
+		for (String next : childHandles) {
+			writeDelta(out, previous, next);
+			previous = next;
+		}
+		if (source instanceof CompilationUnitMetrics) {
+			String fingerprint = ((CompilationUnitMetrics) source).getFingerprint();
+			out.writeBoolean(fingerprint != null);
+			if (fingerprint != null) {
+				out.writeUTF(fingerprint);
+			}
+			writeStrings(out, ((CompilationUnitMetrics) source).getDependencies());
+			writeOutputs(out, ((CompilationUnitMetrics) source).getOutputs());
+		} else if (source instanceof PackageFragmentMetrics) {
+			writeStrings(out, ((PackageFragmentMetrics) source).getEfferentDependencies());
+		} else if (source instanceof IGraphContributor) {
+			writeGraph(out, ((IGraphContributor) source).getEfferent());
+		}
+		if (source.getLevel() > COMPILATIONUNIT) {
+			out.writeInt(source.getCalculatorsStamp());
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @see jdbm.helper.Serializer#deserialize(byte[])
+	 */
+	public Object deserialize(byte[] serialized) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized));
+		if (in.readUnsignedByte() != VERSION) {
+			return null;
+		}
+		AbstractMetricSource source = createSource(in.readUnsignedByte());
+		if (source == null) {
+			return null;
+		}
+		source.setDoRecurse(in.readBoolean());
+		String handle = in.readUTF();
+		source.setHandle(handle);
+		for (Metric next : readMetrics(in, handle)) {
+			source.getValues().put(next.getName(), next);
+		}
+		for (Metric next : readMetrics(in, handle)) {
+			source.getAverages().put(next.getPer() + next.getName(), (Avg) next);
+		}
+		for (Metric next : readMetrics(in, handle)) {
+			source.getMaxima().put(next.getPer() + next.getName(), (Max) next);
+		}
+		int count = readInt(in);
+		List<String> childHandles = source.getChildHandles();
+		String previous = handle;
+		for (int i = 0; i < count; i++) {
+			previous = HandleDictionary.singleton.intern(readDelta(in, previous));
+			childHandles.add(previous);
+		}
+		if (source instanceof CompilationUnitMetrics) {
+			if (in.readBoolean()) {
+				((CompilationUnitMetrics) source).setFingerprint(in.readUTF());
+			}
+			((CompilationUnitMetrics) source).setDependencies(readStrings(in));
+			((CompilationUnitMetrics) source).setOutputs(readOutputs(in));
+		} else if (source instanceof PackageFragmentMetrics) {
+			((PackageFragmentMetrics) source).setEfferentDependencies(readStrings(in));
+		} else if (source instanceof PackageFragmentRootMetrics) {
+			((PackageFragmentRootMetrics) source).setEfferent(readGraph(in));
+		} else if (source instanceof ProjectMetrics) {
+			((ProjectMetrics) source).setEfferent(readGraph(in));
+		}
+		if (source.getLevel() > COMPILATIONUNIT) {
+			source.setCalculatorsStamp(in.readInt());
+		}
+		return source;
+	}
+
+	private AbstractMetricSource createSource(int level) {
+		switch (level) {
+		case METHOD:
+			return new MethodMetrics();
+		case TYPE:
+			return new TypeMetrics();
+		case COMPILATIONUNIT:
+			return new CompilationUnitMetrics();
+		case PACKAGEFRAGMENT:
+			return new PackageFragmentMetrics();
+		case PACKAGEROOT:
+			return new PackageFragmentRootMetrics();
+		case PROJECT:
+			return new ProjectMetrics();
+		default:
+			return null;
+		}
+	}
+
+	private void writeMetrics(DataOutputStream out, Collection<? extends Metric> metrics, String handle) throws IOException {
+		writeInt(out, metrics.size());
+		for (Metric next : metrics) {
+			int kind = METRIC;
+			if (next instanceof Avg) {
+				kind = AVG;
+			} else if (next instanceof Max) {
+				kind = MAX;
+			} else if (next instanceof Sum) {
+				kind = next.isPropagated() ? SUM : SUM_NOT_PROPAGATED;
+			}
+			double value = next.doubleValue();
+			boolean integral = (value >= 0) && (value <= Integer.MAX_VALUE) && (value == Math.floor(value));
+			out.writeByte(integral ? kind | INTEGRAL : kind);
+			writeInt(out, dictionary.getId(next.getName()));
+			writeInt(out, dictionary.getId(next.getPer()));
+			if (integral) {
+				writeInt(out, (int) value);
+			} else {
+				out.writeDouble(value);
+			}
+			if (kind == AVG) {
+				Avg avg = (Avg) next;
+				out.writeDouble(avg.getVariance());
+				writeInt(out, avg.getPoints());
+				writeSketch(out, avg.getSketch());
+			} else if (kind == MAX) {
+				String maxHandle = ((Max) next).getHandle();
+				out.writeBoolean(maxHandle != null);
+				if (maxHandle != null) {
+					writeDelta(out, handle, maxHandle);
+				}
+			}
+		}
+	}
+
+	private List<Metric> readMetrics(DataInputStream in, String handle) throws IOException {
+		int count = readInt(in);
+		List<Metric> result = new ArrayList<Metric>(count);
+		for (int i = 0; i < count; i++) {
+			int kind = in.readUnsignedByte();
+			String name = dictionary.getName(readInt(in));
+			String per = dictionary.getName(readInt(in));
+			double value = ((kind & INTEGRAL) != 0) ? readInt(in) : in.readDouble();
+			switch (kind & ~INTEGRAL) {
+			case AVG:
+				double variance = in.readDouble();
+				int points = readInt(in);
+				result.add(new Avg(name, per, value, variance, points, readSketch(in)));
+				break;
+			case MAX:
+				Max max = new Max(name, per, value);
+				if (in.readBoolean()) {
+					max.setHandle(readDelta(in, handle));
+				}
+				result.add(max);
+				break;
+			case SUM:
+			case SUM_NOT_PROPAGATED:
+				Sum sum = new Sum(name, per, value);
+				sum.setPropagated((kind & ~INTEGRAL) == SUM);
+				result.add(sum);
+				break;
+			default:
+				result.add(new Metric(name, per, value));
+			}
+		}
+		return result;
+	}
+
+	private static void writeSketch(DataOutputStream out, QuantileSketch sketch) throws IOException {
+		// 0 means null, keys are ascending and written as differences
+		writeInt(out, (sketch == null) ? 0 : sketch.size() + 1);
+		if (sketch != null) {
+			int previous = 0;
+			for (int i = 0; i < sketch.size(); i++) {
+				writeInt(out, sketch.getKey(i) - previous);
+				writeInt(out, sketch.getCount(i));
+				previous = sketch.getKey(i);
+			}
+		}
+	}
+
+	private static QuantileSketch readSketch(DataInputStream in) throws IOException {
+		int size = readInt(in) - 1;
+		if (size < 0) {
+			return null;
+		}
+		int[] keys = new int[size];
+		int[] counts = new int[size];
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			keys[i] = previous + readInt(in);
+			counts[i] = readInt(in);
+			previous = keys[i];
+		}
+		return new QuantileSketch(keys, counts);
+	}
+
+	private void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+		// 0 means null
+		writeInt(out, (strings == null) ? 0 : strings.size() + 1);
+		if (strings != null) {
+			for (String next : strings) {
+				out.writeUTF(next);
+			}
+		}
+	}
+
+	private Set<String> readStrings(DataInputStream in) throws IOException {
+		int count = readInt(in) - 1;
+		if (count < 0) {
+			return null;
+		}
+		Set<String> result = new HashSet<String>();
+		for (int i = 0; i < count; i++) {
+			result.add(in.readUTF());
+		}
+		return result;
+	}
+
+	/**
+	 * Like writeGraph, but the calculator stamps and keys are taken from the dictionary since all compilation units share them
+	 */
+	private void writeOutputs(DataOutputStream out, Map<String, Set<String>> outputs) throws IOException {
+		writeInt(out, (outputs == null) ? 0 : outputs.size() + 1);
+		if (outputs != null) {
+			for (Map.Entry<String, Set<String>> next : outputs.entrySet()) {
+				writeInt(out, dictionary.getId(next.getKey()));
+				writeInt(out, next.getValue().size());
+				for (String key : next.getValue()) {
+					writeInt(out, dictionary.getId(key));
+				}
+			}
+		}
+	}
+
+	private Map<String, Set<String>> readOutputs(DataInputStream in) throws IOException {
+		int count = readInt(in) - 1;
+		if (count < 0) {
+			return null;
+		}
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (int i = 0; i < count; i++) {
+			String stamp = dictionary.getName(readInt(in));
+			int size = readInt(in);
+			Set<String> keys = new HashSet<String>();
+			for (int j = 0; j < size; j++) {
+				keys.add(dictionary.getName(readInt(in)));
+			}
+			result.put(stamp, keys);
+		}
+		return result;
+	}
+
+	private void writeGraph(DataOutputStream out, Map<String, Set<String>> graph) throws IOException {
+		writeInt(out, (graph == null) ? 0 : graph.size() + 1);
+		if (graph != null) {
+			for (Map.Entry<String, Set<String>> next : graph.entrySet()) {
+				out.writeUTF(next.getKey());
+				writeStrings(out, next.getValue());
+			}
+		}
+	}
+
+	private Map<String, Set<String>> readGraph(DataInputStream in) throws IOException {
+		int count = readInt(in) - 1;
+		if (count < 0) {
+			return null;
+		}
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (int i = 0; i < count; i++) {
+			String key = in.readUTF();
+			result.put(key, readStrings(in));
+		}
+		return result;
+	}
+
+	/**
+	 * write next as the length of the prefix it shares with previous followed by the rest
+	 */
+	private static void writeDelta(DataOutputStream out, String previous, String next) throws IOException {
+		int max = Math.min(previous.length(), next.length());
+		int common = 0;
+		while ((common < max) && (previous.charAt(common) == next.charAt(common))) {
+			common++;
+		}
+		writeInt(out, common);
+		out.writeUTF(next.substring(common));
+	}
+
+	private static String readDelta(DataInputStream in, String previous) throws IOException {
+		int common = readInt(in);
+		return previous.substring(0, common) + in.readUTF();
+	}
+
+	/**
+	 * write a non-negative int using 7 bits per byte
+	 */
+	private static void writeInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		int result = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return result;
+	}
+
+	/**
+	 * Numbers the metric ids and scopes used in the database. Ids are never reused, so the dictionary only needs to be saved when it grew.
+	 */
+	public static class Dictionary implements Serializable {
+
+		static final long serialVersionUID = -1837712318429520458L;
+
+		private List<String> names = new ArrayList<String>();
+		private transient Map<String, Integer> ids = null;
+
+		transient long recid = 0;
+		transient boolean dirty = false;
+
+		public Dictionary() {
+			super();
+		}
+
+		public int getId(String name) {
+			if (ids == null) {
+				ids = new HashMap<String, Integer>();
+				for (int i = 0; i < names.size(); i++) {
+					ids.put(names.get(i), Integer.valueOf(i));
+				}
+			}
+			Integer id = ids.get(name);
+			if (id == null) {
+				id = Integer.valueOf(names.size());
+				names.add(name);
+				ids.put(name, id);
+				dirty = true;
+			}
+			return id.intValue();
+		}
+
+		public String getName(int id) throws IOException {
+			if (id >= names.size()) {
+				throw new IOException("Unknown metric id " + id);
+			}
+			return names.get(id);
+		}
+
+		public int size() {
+			return names.size();
+		}
+	}
+}
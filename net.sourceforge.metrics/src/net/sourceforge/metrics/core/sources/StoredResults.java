@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.metrics.calculators.IFusedCalculator;
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.ICalculator;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.MetricsPlugin;
+import net.sourceforge.metrics.propagators.Propagator;
+
+/**
+ * Records which values each calculator stored for the methods, types and compilation unit of one compilation unit, under the calculator's stamp
+ * (see MetricsPlugin#getCalculatorStamp). When the source of a compilation unit did not change but some stamps did, only the calculators with a new
+ * stamp (and the ones depending on their metrics) run again, the values of the others are copied from the previous results. Propagators and
+ * calculators sharing the method body traversal are cheap and always run.
+ * <p>
+ * The results being recorded belong to the current thread, between begin() and end().
+ * 
+ * @author Frank Sauer
+ */
+public class StoredResults implements Constants {
+
+	private static final String[] LEVELS = { "method", "type", "compilationUnit" };
+	// prefixes of the recorded keys
+	private static final char VALUE = 'v';
+	private static final char AVERAGE = 'a';
+	private static final char MAXIMUM = 'm';
+
+	private static ThreadLocal<StoredResults> current = new ThreadLocal<StoredResults>();
+
+	// previous sources of the compilation unit and its descendants (handle -> source)
+	private Map<String, AbstractMetricSource> previous = new HashMap<String, AbstractMetricSource>();
+	private Map<String, Set<String>> previousOutputs = null;
+	private String projectName = null;
+	private Set<String> stale = null;
+	private Map<String, Set<String>> outputs = new HashMap<String, Set<String>>();
+
+	private StoredResults(CompilationUnitMetrics unit) {
+		if ((unit != null) && (unit.getOutputs() != null)) {
+			previousOutputs = unit.getOutputs();
+			projectName = HandleDictionary.getProjectName(unit.getHandle());
+			previous.put(unit.getHandle(), unit);
+			for (String next : Cache.singleton.getDescendants(unit.getHandle())) {
+				AbstractMetricSource source = Cache.singleton.get(next);
+				if (source != null) {
+					previous.put(next, source);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start recording the results of a compilation unit on the current thread
+	 * 
+	 * @param unit
+	 *            the previous metrics of the compilation unit if they were calculated from the same source, their results are reused where
+	 *            possible. May be null
+	 * @return false if there already are results being recorded
+	 */
+	public static boolean begin(CompilationUnitMetrics unit) {
+		if (current.get() != null) {
+			return false;
+		}
+		current.set(new StoredResults(unit));
+		return true;
+	}
+
+	public static void end() {
+		current.remove();
+	}
+
+	/**
+	 * @return the results recorded on the current thread, null if none are
+	 */
+	static StoredResults get() {
+		return current.get();
+	}
+
+	/**
+	 * @param projectName
+	 * @return the stamps of all calculators working on compilation units and below in the project, prefixed by their level
+	 */
+	public static Set<String> getStamps(String projectName) {
+		Set<String> result = new HashSet<String>();
+		for (String level : LEVELS) {
+			for (ICalculator c : MetricsPlugin.getDefault().getCalculators(level, projectName)) {
+				result.add(level + ':' + MetricsPlugin.getCalculatorStamp(c));
+			}
+		}
+		return result;
+	}
+
+	private static String getStamp(AbstractMetricSource source, ICalculator c) {
+		return LEVELS[source.getLevel() - METHOD] + ':' + MetricsPlugin.getCalculatorStamp(c);
+	}
+
+	private static boolean isReusable(ICalculator c) {
+		return !(c instanceof Propagator) && !(c instanceof IFusedCalculator);
+	}
+
+	/**
+	 * Copy the values of the calculators whose stamp did not change from the previous metrics of source
+	 * 
+	 * @param source
+	 * @param calculators
+	 * @return the calculators that have to run
+	 */
+	List<ICalculator> reuse(AbstractMetricSource source, List<ICalculator> calculators) {
+		AbstractMetricSource old = previous.get(source.getHandle());
+		if (old == null) {
+			return calculators;
+		}
+		List<ICalculator> result = new ArrayList<ICalculator>(calculators.size());
+		for (ICalculator c : calculators) {
+			String stamp = getStamp(source, c);
+			Set<String> keys = previousOutputs.get(stamp);
+			if (!isReusable(c) || (keys == null) || isStale(c, keys)) {
+				result.add(c);
+				continue;
+			}
+			for (String key : keys) {
+				copy(old, source, key);
+			}
+			getOutputs(stamp).addAll(keys);
+		}
+		return result;
+	}
+
+	private static void copy(AbstractMetricSource from, AbstractMetricSource to, String key) {
+		String name = key.substring(1);
+		switch (key.charAt(0)) {
+		case VALUE:
+			Metric value = from.getValues().get(name);
+			if (value != null) {
+				to.setValue(value);
+			}
+			break;
+		case AVERAGE:
+			Avg avg = from.getAverages().get(name);
+			if (avg != null) {
+				to.setAverage(avg);
+			}
+			break;
+		case MAXIMUM:
+			Max max = from.getMaxima().get(name);
+			if (max != null) {
+				to.setMaximum(max);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * @return true if c calculates (or stored) a metric that depends on a metric of a calculator whose stamp changed
+	 */
+	private boolean isStale(ICalculator c, Set<String> keys) {
+		if (stale == null) {
+			stale = findStale();
+		}
+		if (stale.contains(c.getName())) {
+			return true;
+		}
+		for (String key : keys) {
+			if ((key.charAt(0) == VALUE) && stale.contains(key.substring(1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the metrics of the calculators whose stamp changed and all metrics depending on them
+	 */
+	private Set<String> findStale() {
+		Set<String> result = new HashSet<String>();
+		LinkedList<String> todo = new LinkedList<String>();
+		for (String level : LEVELS) {
+			for (ICalculator c : MetricsPlugin.getDefault().getCalculators(level, projectName)) {
+				if (isReusable(c) && !previousOutputs.containsKey(level + ':' + MetricsPlugin.getCalculatorStamp(c))) {
+					todo.add(c.getName());
+				}
+			}
+		}
+		while (!todo.isEmpty()) {
+			String next = todo.removeFirst();
+			if (result.add(next)) {
+				String[] dependents = MetricsPlugin.getDefault().getDependentMetrics(next);
+				if (dependents != null) {
+					for (String dependent : dependents) {
+						todo.add(dependent);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Start recording the values c stores in source. Only the slots c writes are noted, the values of source are not copied
+	 * 
+	 * @param source
+	 * @param c
+	 * @return false if the values of c are not recorded, after() then need not be called
+	 */
+	boolean before(AbstractMetricSource source, ICalculator c) {
+		if (!isReusable(c)) {
+			return false;
+		}
+		source.getValueSlots().startJournal();
+		source.getAverageSlots().startJournal();
+		source.getMaximumSlots().startJournal();
+		return true;
+	}
+
+	/**
+	 * record the values c stored in source since before()
+	 * 
+	 * @param source
+	 * @param c
+	 * @param done
+	 *            false if c failed, its values are not recorded then
+	 */
+	void after(AbstractMetricSource source, ICalculator c, boolean done) {
+		Set<String> keys = done ? getOutputs(getStamp(source, c)) : null;
+		source.getValueSlots().endJournal(keys, VALUE);
+		source.getAverageSlots().endJournal(keys, AVERAGE);
+		source.getMaximumSlots().endJournal(keys, MAXIMUM);
+	}
+
+	private Set<String> getOutputs(String stamp) {
+		Set<String> result = outputs.get(stamp);
+		if (result == null) {
+			result = new HashSet<String>();
+			outputs.put(stamp, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @param unit
+	 * @return the keys of the values stored by every calculator for the compilation unit so far (stamp -> keys), including the calculators that
+	 *         stored nothing
+	 */
+	Map<String, Set<String>> getOutputs(CompilationUnitMetrics unit) {
+		for (String stamp : getStamps(HandleDictionary.getProjectName(unit.getHandle()))) {
+			getOutputs(stamp);
+		}
+		return outputs;
+	}
+}
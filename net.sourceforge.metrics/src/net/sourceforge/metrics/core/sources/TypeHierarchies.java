@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.core.sources;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.sourceforge.metrics.core.Log;
+
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IRegion;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.ITypeHierarchyChangedListener;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Shares one type hierarchy for all source types of a project between the TypeMetrics of that project, instead of building a new hierarchy for every single type. The shared hierarchy is only built once a project asked for more than
+ * SHARED_THRESHOLD hierarchies, so an incremental build of a few types still uses cheaper hierarchies focused on those types. Shared hierarchies are dropped as soon as jdt reports that a change in the workspace affects them, or when
+ * invalidate() is called by a full build.
+ * 
+ * @author Frank Sauer
+ */
+public class TypeHierarchies implements ITypeHierarchyChangedListener {
+
+	static final int SHARED_THRESHOLD = 20;
+
+	public final static TypeHierarchies singleton = new TypeHierarchies();
+
+	// projectHandle -> shared hierarchy
+	private Map<String, ITypeHierarchy> hierarchies = new HashMap<String, ITypeHierarchy>();
+	// projectHandle -> number of hierarchies requested since the last invalidation
+	private Map<String, Integer> requests = new HashMap<String, Integer>();
+	// only one shared hierarchy is built at a time, listener callbacks only need the hierarchies lock
+	private final Object buildLock = new Object();
+
+	private TypeHierarchies() {
+		super();
+	}
+
+	/**
+	 * Get a hierarchy that contains all supertypes and subtypes of the given type. This is either the shared hierarchy of its project or a new hierarchy focused on the type. Do not use ITypeHierarchy.getType() on the result.
+	 * 
+	 * @param type
+	 * @return ITypeHierarchy or null if it could not be created
+	 */
+	public ITypeHierarchy getHierarchy(IType type) {
+		IJavaProject project = type.getJavaProject();
+		String key = project.getHandleIdentifier();
+		ITypeHierarchy hierarchy = getShared(key);
+		if (hierarchy != null) {
+			return hierarchy;
+		}
+		try {
+			if (countRequest(key) <= SHARED_THRESHOLD) {
+				return type.newTypeHierarchy(project, null);
+			}
+			synchronized (buildLock) {
+				hierarchy = getShared(key);
+				if (hierarchy == null) {
+					hierarchy = project.newTypeHierarchy(createRegion(project), null);
+					hierarchy.addTypeHierarchyChangedListener(this);
+					synchronized (hierarchies) {
+						hierarchies.put(key, hierarchy);
+					}
+				}
+			}
+			return hierarchy;
+		} catch (Throwable e) {
+			Log.logError("Could not get type hierarchy for " + type.getHandleIdentifier(), e);
+			return null;
+		}
+	}
+
+	private ITypeHierarchy getShared(String key) {
+		synchronized (hierarchies) {
+			return hierarchies.get(key);
+		}
+	}
+
+	private int countRequest(String key) {
+		synchronized (hierarchies) {
+			Integer count = requests.get(key);
+			int result = (count == null) ? 1 : count.intValue() + 1;
+			requests.put(key, Integer.valueOf(result));
+			return result;
+		}
+	}
+
+	/**
+	 * @return a region with all source folders of the project. Types in jars can't be subtypes of those.
+	 */
+	private IRegion createRegion(IJavaProject project) throws JavaModelException {
+		IRegion region = JavaCore.newRegion();
+		IPackageFragmentRoot[] roots = project.getPackageFragmentRoots();
+		for (IPackageFragmentRoot root : roots) {
+			if (root.getKind() == IPackageFragmentRoot.K_SOURCE) {
+				region.add(root);
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * Start counting requests for the given project again, so that a small incremental build does not build a new shared hierarchy just because an earlier build asked for many.
+	 * 
+	 * @param project
+	 */
+	public void buildStarted(IJavaProject project) {
+		synchronized (hierarchies) {
+			requests.remove(project.getHandleIdentifier());
+		}
+	}
+
+	/**
+	 * drop the shared hierarchy of the given project
+	 * 
+	 * @param project
+	 */
+	public void invalidate(IJavaProject project) {
+		ITypeHierarchy old;
+		synchronized (hierarchies) {
+			old = hierarchies.remove(project.getHandleIdentifier());
+			requests.remove(project.getHandleIdentifier());
+		}
+		if (old != null) {
+			old.removeTypeHierarchyChangedListener(this);
+		}
+	}
+
+	/**
+	 * drop all shared hierarchies
+	 */
+	public void clear() {
+		synchronized (hierarchies) {
+			for (ITypeHierarchy next : hierarchies.values()) {
+				next.removeTypeHierarchyChangedListener(this);
+			}
+			hierarchies.clear();
+			requests.clear();
+		}
+	}
+
+	/**
+	 * jdt tells us a change affected the hierarchy, forget it and start counting requests again
+	 * 
+	 * @see org.eclipse.jdt.core.ITypeHierarchyChangedListener#typeHierarchyChanged(org.eclipse.jdt.core.ITypeHierarchy)
+	 */
+	public void typeHierarchyChanged(ITypeHierarchy typeHierarchy) {
+		synchronized (hierarchies) {
+			for (Iterator<Map.Entry<String, ITypeHierarchy>> i = hierarchies.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String, ITypeHierarchy> next = i.next();
+				if (next.getValue() == typeHierarchy) {
+					requests.remove(next.getKey());
+					i.remove();
+				}
+			}
+		}
+		typeHierarchy.removeTypeHierarchyChangedListener(this);
+	}
+}
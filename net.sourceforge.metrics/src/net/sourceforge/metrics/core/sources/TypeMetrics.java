@@ -30,7 +30,6 @@ import java.util.Set;
 import net.sourceforge.metrics.core.ICalculator;
 import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.Metric;
-import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.internal.xml.IXMLExporter;
 
 import org.eclipse.jdt.core.IJavaElement;
@@ -269,12 +268,12 @@ public class TypeMetrics extends AbstractMetricSource {
 	}
 
 	/**
-	 * Returns the hierarchy.
+	 * Returns a hierarchy focused on this type. Building it is expensive, use getAllSuperclasses(), getSubtypes() or getAllSubtypes() instead when possible.
 	 * 
 	 * @return ITypeHierarchy
 	 */
 	public ITypeHierarchy getHierarchy() {
-		if (hierarchy == null) {
+		if ((hierarchy == null) || (hierarchy.getType() == null)) {
 			IType iType = (IType) getJavaElement();
 			try {
 				hierarchy = iType.newTypeHierarchy((IJavaProject) iType.getAncestor(IJavaElement.JAVA_PROJECT), null);
@@ -285,6 +284,41 @@ public class TypeMetrics extends AbstractMetricSource {
 		return hierarchy;
 	}
 
+	/**
+	 * @return a hierarchy containing the supertypes and subtypes of this type, possibly shared with the other types in the project
+	 * @see TypeHierarchies
+	 */
+	private ITypeHierarchy getSharedHierarchy() {
+		if (hierarchy == null) {
+			hierarchy = TypeHierarchies.singleton.getHierarchy((IType) getJavaElement());
+		}
+		return hierarchy;
+	}
+
+	/**
+	 * @return all superclasses of this type, nearest first
+	 */
+	public IType[] getAllSuperclasses() {
+		ITypeHierarchy h = getSharedHierarchy();
+		return (h == null) ? new IType[0] : h.getAllSuperclasses((IType) getJavaElement());
+	}
+
+	/**
+	 * @return the direct subtypes of this type
+	 */
+	public IType[] getSubtypes() {
+		ITypeHierarchy h = getSharedHierarchy();
+		return (h == null) ? new IType[0] : h.getSubtypes((IType) getJavaElement());
+	}
+
+	/**
+	 * @return all direct and indirect subtypes of this type
+	 */
+	public IType[] getAllSubtypes() {
+		ITypeHierarchy h = getSharedHierarchy();
+		return (h == null) ? new IType[0] : h.getAllSubtypes((IType) getJavaElement());
+	}
+
 	/**
 	 * @see net.sourceforge.metrics.core.sources.AbstractMetricSource#getLevel()
 	 */
@@ -298,7 +332,7 @@ public class TypeMetrics extends AbstractMetricSource {
 	 */
 	@Override
 	protected List<ICalculator> getCalculators() {
-		return MetricsPlugin.getDefault().getCalculators("type");
+		return getCalculators("type");
 	}
 
 	/**
@@ -121,6 +121,11 @@ public abstract class MetricsExporter implements Constants {
 					p.put("avg", format(avg.doubleValue()));
 					p.put("stddev", format(avg.getStandardDeviation()));
 					p.put("points", String.valueOf(avg.getPoints()));
+					if (avg.getSketch() != null) {
+						p.put("p50", format(avg.getQuantile(0.5)));
+						p.put("p90", format(avg.getQuantile(0.9)));
+						p.put("p99", format(avg.getQuantile(0.99)));
+					}
 				}
 				if (max != null) {
 					p.put("max", format(max.doubleValue()));
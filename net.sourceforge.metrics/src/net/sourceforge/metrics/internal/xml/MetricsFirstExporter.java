@@ -283,6 +283,15 @@ public class MetricsFirstExporter implements IExporter, Constants {
 					pOut.print(" stddev = \"");
 					pOut.print(nf.format(avg.getStandardDeviation()));
 					pOut.print("\"");
+					if (avg.getSketch() != null) {
+						pOut.print(" p50 = \"");
+						pOut.print(nf.format(avg.getQuantile(0.5)));
+						pOut.print("\" p90 = \"");
+						pOut.print(nf.format(avg.getQuantile(0.9)));
+						pOut.print("\" p99 = \"");
+						pOut.print(nf.format(avg.getQuantile(0.99)));
+						pOut.print("\"");
+					}
 				}
 				if (max != null) {
 					pOut.print(" max = \"");
@@ -360,14 +369,11 @@ public class MetricsFirstExporter implements IExporter, Constants {
 	}
 
 	protected List<AbstractMetricSource> getChildren(String handle, Class<? extends AbstractMetricSource> filter) {
-		List<String> handles = new ArrayList<String>(Cache.singleton.getKeysForHandle(handle));
 		List<AbstractMetricSource> result = new ArrayList<AbstractMetricSource>();
-		for (String next : handles) {
-			if (next.startsWith(handle) && (!next.equals(handle))) {
-				AbstractMetricSource p = getData(next);
-				if (filter.isInstance(p)) {
-					result.add(p);
-				}
+		for (String next : Cache.singleton.getDescendants(handle)) {
+			AbstractMetricSource p = getData(next);
+			if (filter.isInstance(p)) {
+				result.add(p);
 			}
 		}
 		return result;
@@ -24,9 +24,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
 import net.sourceforge.metrics.core.IExporter;
 import net.sourceforge.metrics.core.MetricsPlugin;
@@ -93,28 +91,18 @@ public class XMLSourceTreeExporter implements IExporter {
 	}
 
 	private int calculateTotalWork(String handle) {
-		int result = 0;
-		Set<String> handles = Cache.singleton.getKeysForHandle(handle);
-		for (Iterator<String> i = handles.iterator(); i.hasNext();) {
-			String next = i.next();
-			if (next.startsWith(handle)) {
-				result++;
-			}
-		}
+		// the element itself and everything below it
+		int result = 1 + Cache.singleton.getDescendants(handle).size();
 		MetricsPlugin plugin = MetricsPlugin.getDefault();
 		return result + plugin.getMetricIds().length;
 	}
 
 	protected static List<AbstractMetricSource> getChildren(String handle, Class<? extends AbstractMetricSource> filter) {
-		Set<String> handles = Cache.singleton.getKeysForHandle(handle);
 		List<AbstractMetricSource> result = new ArrayList<AbstractMetricSource>();
-		for (Iterator<String> i = handles.iterator(); i.hasNext();) {
-			String next = i.next();
-			if (next.startsWith(handle) && (!next.equals(handle))) {
-				AbstractMetricSource p = Cache.singleton.get(next);
-				if (filter.isInstance(p)) {
-					result.add(p);
-				}
+		for (String next : Cache.singleton.getDescendants(handle)) {
+			AbstractMetricSource p = Cache.singleton.get(next);
+			if (filter.isInstance(p)) {
+				result.add(p);
 			}
 		}
 		return result;
@@ -23,6 +23,7 @@ package net.sourceforge.metrics.propagators;
 import java.util.List;
 
 import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.QuantileSketch;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
 /**
@@ -54,6 +55,22 @@ public class AvgAvg extends Propagator {
 		source.setAverage(Avg.createFromAverages(name, per, averages));
 	}
 
+	/**
+	 * @see net.sourceforge.metrics.propagators.Propagator#update(net.sourceforge.metrics.core.sources.AbstractMetricSource,
+	 *      net.sourceforge.metrics.core.sources.AbstractMetricSource, net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	@Override
+	public boolean update(AbstractMetricSource source, AbstractMetricSource oldChild, AbstractMetricSource newChild) {
+		Avg current = source.getAverage(name, per);
+		if (current == null) {
+			current = new Avg(name, per, 0, 0, 0, QuantileSketch.EMPTY);
+		}
+		Avg oldAvg = (oldChild == null) ? null : oldChild.getAverage(name, per);
+		Avg newAvg = (newChild == null) ? null : newChild.getAverage(name, per);
+		source.setAverage(Avg.update(current, oldAvg, newAvg));
+		return true;
+	}
+
 	/**
 	 * @see net.sourceforge.metrics.propagators.Propagator#createNextLevel()
 	 */
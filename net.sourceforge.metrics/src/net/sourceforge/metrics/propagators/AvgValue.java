@@ -24,6 +24,7 @@ import java.util.List;
 
 import net.sourceforge.metrics.core.Avg;
 import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.QuantileSketch;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
 /**
@@ -63,6 +64,24 @@ public class AvgValue extends Propagator {
 		source.setAverage(Avg.createFromMetrics(name, per, metrics));
 	}
 
+	/**
+	 * @see net.sourceforge.metrics.propagators.Propagator#update(net.sourceforge.metrics.core.sources.AbstractMetricSource,
+	 *      net.sourceforge.metrics.core.sources.AbstractMetricSource, net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	@Override
+	public boolean update(AbstractMetricSource source, AbstractMetricSource oldChild, AbstractMetricSource newChild) {
+		Avg current = source.getAverage(name, per);
+		if (current == null) {
+			current = new Avg(name, per, 0, 0, 0, QuantileSketch.EMPTY);
+		}
+		Metric oldValue = getValue(oldChild, x);
+		Metric newValue = getValue(newChild, x);
+		Avg oldPart = (oldValue == null) ? null : Avg.createFromValue(name, per, oldValue.doubleValue());
+		Avg newPart = (newValue == null) ? null : Avg.createFromValue(name, per, newValue.doubleValue());
+		source.setAverage(Avg.update(current, oldPart, newPart));
+		return true;
+	}
+
 	/**
 	 * @see net.sourceforge.metrics.propagators.Propagator#createNextLevel()
 	 */
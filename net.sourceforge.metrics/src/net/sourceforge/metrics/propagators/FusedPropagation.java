@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.propagators;
+
+import java.util.List;
+
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Log;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.QuantileSketch;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+
+import org.eclipse.jdt.core.IJavaElement;
+
+/**
+ * Calculates the sums, averages and maxima of all propagators of a source in a single pass over its children, instead of having every propagator
+ * collect the values of all children into a list of its own. The results are the same as those of calling calculate() on each propagator in turn.
+ * Propagators of other classes than Sum, AvgValue, AvgAvg, MaxValue and MaxMax are still calculated one by one.
+ * 
+ * @author Frank Sauer
+ */
+public class FusedPropagation {
+
+	private static final int OTHER = 0;
+	private static final int SUM = 1;
+	private static final int AVG_VALUE = 2;
+	private static final int AVG_AVG = 3;
+	private static final int MAX_VALUE = 4;
+	private static final int MAX_MAX = 5;
+
+	private final AbstractMetricSource source;
+	private final Propagator[] propagators;
+	private final int[] kinds;
+	private final double[] sums;
+	/** values of the children for AvgValue, maxima for MaxValue */
+	private final double[][] values;
+	private final int[] counts;
+	private final Avg[] averages;
+	private final Max[] maxima;
+	private final AbstractMetricSource[] maxChildren;
+
+	private FusedPropagation(AbstractMetricSource source, List<? extends Propagator> propagators, int size) {
+		this.source = source;
+		this.propagators = propagators.toArray(new Propagator[propagators.size()]);
+		int length = this.propagators.length;
+		kinds = new int[length];
+		sums = new double[length];
+		values = new double[length][];
+		counts = new int[length];
+		averages = new Avg[length];
+		maxima = new Max[length];
+		maxChildren = new AbstractMetricSource[length];
+		for (int i = 0; i < length; i++) {
+			Propagator p = this.propagators[i];
+			Class<?> type = p.getClass();
+			if (type == Sum.class) {
+				kinds[i] = SUM;
+			} else if (type == AvgValue.class) {
+				kinds[i] = AVG_VALUE;
+				values[i] = new double[size];
+			} else if (type == AvgAvg.class) {
+				kinds[i] = AVG_AVG;
+				averages[i] = new Avg(p.getName(), p.getPer(), 0, 0, 0, QuantileSketch.EMPTY);
+			} else if (type == MaxValue.class) {
+				kinds[i] = MAX_VALUE;
+				values[i] = new double[1];
+			} else if (type == MaxMax.class) {
+				kinds[i] = MAX_MAX;
+			} else {
+				kinds[i] = OTHER;
+			}
+		}
+	}
+
+	/**
+	 * Calculate all given propagators for the source in a single pass over its children
+	 * 
+	 * @param source
+	 * @param propagators
+	 */
+	public static void calculate(AbstractMetricSource source, List<? extends Propagator> propagators) {
+		List<AbstractMetricSource> children = source.getChildren();
+		FusedPropagation fused = new FusedPropagation(source, propagators, children.size());
+		for (AbstractMetricSource child : children) {
+			fused.add(child);
+		}
+		fused.store();
+	}
+
+	private void add(AbstractMetricSource child) {
+		for (int i = 0; i < propagators.length; i++) {
+			Propagator p = propagators[i];
+			switch (kinds[i]) {
+			case SUM:
+				Metric partial = child.getValue(p.getX());
+				if (partial != null) {
+					sums[i] += partial.doubleValue();
+				}
+				break;
+			case AVG_VALUE:
+				Metric value = child.getValue(p.getX());
+				if (value != null) {
+					values[i][counts[i]++] = value.doubleValue();
+				}
+				break;
+			case AVG_AVG:
+				averages[i] = averages[i].add(child.getAverage(p.getName(), p.getPer()));
+				break;
+			case MAX_VALUE:
+				Metric candidate = child.getValue(p.getX());
+				if ((candidate != null) && ((maxChildren[i] == null) || (candidate.doubleValue() > values[i][0]))) {
+					values[i][0] = candidate.doubleValue();
+					maxChildren[i] = child;
+				}
+				break;
+			case MAX_MAX:
+				Max max = child.getMaximum(p.getName(), p.getPer());
+				if ((max != null) && ((maxima[i] == null) || (max.doubleValue() > maxima[i].doubleValue()))) {
+					maxima[i] = max;
+				}
+				break;
+			}
+		}
+	}
+
+	private void store() {
+		for (int i = 0; i < propagators.length; i++) {
+			Propagator p = propagators[i];
+			try {
+				switch (kinds[i]) {
+				case SUM:
+					source.setValue(new net.sourceforge.metrics.core.Sum(p.getName(), sums[i], p.getName().equals(p.getX())));
+					break;
+				case AVG_VALUE:
+					source.setAverage(Avg.createFromValues(p.getName(), p.getPer(), values[i], counts[i]));
+					break;
+				case AVG_AVG:
+					source.setAverage(averages[i]);
+					break;
+				case MAX_VALUE:
+					if (maxChildren[i] != null) {
+						Max max = new Max(p.getName(), p.getPer(), values[i][0]);
+						IJavaElement element = maxChildren[i].getJavaElement();
+						if (element != null) {
+							max.setHandle(element.getHandleIdentifier());
+						}
+						source.setMaximum(max);
+					}
+					break;
+				case MAX_MAX:
+					if (maxima[i] != null) {
+						source.setMaximum(maxima[i]);
+					}
+					break;
+				default:
+					p.calculate(source);
+				}
+			} catch (OutOfMemoryError m) {
+				throw m;
+			} catch (Throwable e) {
+				Log.logError("Error running " + p.getName() + " for " + source.getHandle(), e);
+			}
+		}
+	}
+}
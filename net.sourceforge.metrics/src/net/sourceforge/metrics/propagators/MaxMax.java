@@ -53,6 +53,35 @@ public class MaxMax extends Propagator {
 		}
 	}
 
+	/**
+	 * A new maximum can be taken over from the child, but if the child held the maximum and its maximum dropped, the maximum is somewhere else.
+	 * 
+	 * @see net.sourceforge.metrics.propagators.Propagator#update(net.sourceforge.metrics.core.sources.AbstractMetricSource,
+	 *      net.sourceforge.metrics.core.sources.AbstractMetricSource, net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	@Override
+	public boolean update(AbstractMetricSource source, AbstractMetricSource oldChild, AbstractMetricSource newChild) {
+		Max current = source.getMaximum(name, per);
+		Max oldMax = (oldChild == null) ? null : oldChild.getMaximum(name, per);
+		Max newMax = (newChild == null) ? null : newChild.getMaximum(name, per);
+		if ((current != null) && (oldMax != null) && isSame(current, oldMax)) {
+			if ((newMax == null) || (newMax.doubleValue() < current.doubleValue())) {
+				return false;
+			}
+		} else if ((newMax == null) || ((current != null) && (newMax.doubleValue() <= current.doubleValue()))) {
+			return true;
+		}
+		source.setMaximum(newMax);
+		return true;
+	}
+
+	private boolean isSame(Max a, Max b) {
+		if (a.doubleValue() != b.doubleValue()) {
+			return false;
+		}
+		return (a.getHandle() == null) ? b.getHandle() == null : a.getHandle().equals(b.getHandle());
+	}
+
 	/**
 	 * @see net.sourceforge.metrics.propagators.Propagator#createNextLevel()
 	 */
@@ -22,6 +22,7 @@ package net.sourceforge.metrics.propagators;
 
 import net.sourceforge.metrics.core.Constants;
 import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
 /**
@@ -69,6 +70,30 @@ public class MaxValue extends Propagator implements Constants {
 		}
 	}
 
+	/**
+	 * A new maximum can be taken over from the child, but if the child held the maximum and its value dropped, the maximum is somewhere else.
+	 * 
+	 * @see net.sourceforge.metrics.propagators.Propagator#update(net.sourceforge.metrics.core.sources.AbstractMetricSource,
+	 *      net.sourceforge.metrics.core.sources.AbstractMetricSource, net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	@Override
+	public boolean update(AbstractMetricSource source, AbstractMetricSource oldChild, AbstractMetricSource newChild) {
+		Max current = source.getMaximum(name, per);
+		Metric newValue = getValue(newChild, x);
+		String child = (newChild != null) ? newChild.getHandle() : oldChild.getHandle();
+		if ((current != null) && child.equals(current.getHandle())) {
+			if ((newValue == null) || (newValue.doubleValue() < current.doubleValue())) {
+				return false;
+			}
+		} else if ((newValue == null) || ((current != null) && (newValue.doubleValue() <= current.doubleValue()))) {
+			return true;
+		}
+		Max max = new Max(name, per, newValue.doubleValue());
+		max.setHandle(child);
+		source.setMaximum(max);
+		return true;
+	}
+
 	/**
 	 * @see net.sourceforge.metrics.propagators.Propagator#createNextLevel()
 	 */
@@ -21,6 +21,8 @@
 package net.sourceforge.metrics.propagators;
 
 import net.sourceforge.metrics.calculators.Calculator;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
 
 /**
  * A Propagator propagates values up the source tree. Current implementations are Max, Avg and Sum.
@@ -94,4 +96,29 @@ public abstract class Propagator extends Calculator {
 	}
 
 	public abstract Propagator createNextLevel();
+
+	/**
+	 * Update the propagated value of source for a single child that changed, without looking at any of the other children. This base class can't, so
+	 * the source has to be calculated from all of its children.
+	 * 
+	 * @param source
+	 * @param oldChild
+	 *            the child as it was before it changed, null if it was added
+	 * @param newChild
+	 *            the recalculated child, null if it was removed
+	 * @return false if the value can only be calculated from all children again
+	 */
+	public boolean update(AbstractMetricSource source, AbstractMetricSource oldChild, AbstractMetricSource newChild) {
+		return false;
+	}
+
+	/**
+	 * @param child
+	 *            may be null
+	 * @param name
+	 * @return the value of the child's metric, null if there is no child or no such metric
+	 */
+	protected static Metric getValue(AbstractMetricSource child, String name) {
+		return (child == null) ? null : child.getValue(name);
+	}
 }
@@ -68,6 +68,26 @@ public class Sum extends Propagator {
 		source.setValue(new net.sourceforge.metrics.core.Sum(getName(), sum, isPropagator()));
 	}
 
+	/**
+	 * @see net.sourceforge.metrics.propagators.Propagator#update(net.sourceforge.metrics.core.sources.AbstractMetricSource,
+	 *      net.sourceforge.metrics.core.sources.AbstractMetricSource, net.sourceforge.metrics.core.sources.AbstractMetricSource)
+	 */
+	@Override
+	public boolean update(AbstractMetricSource source, AbstractMetricSource oldChild, AbstractMetricSource newChild) {
+		Metric current = source.getValue(getName());
+		double sum = (current == null) ? 0 : current.doubleValue();
+		Metric oldPartial = getValue(oldChild, x);
+		if (oldPartial != null) {
+			sum -= oldPartial.doubleValue();
+		}
+		Metric newPartial = getValue(newChild, x);
+		if (newPartial != null) {
+			sum += newPartial.doubleValue();
+		}
+		source.setValue(new net.sourceforge.metrics.core.Sum(getName(), sum, isPropagator()));
+		return true;
+	}
+
 	private boolean isPropagator() {
 		return getName().equals(x);
 	}
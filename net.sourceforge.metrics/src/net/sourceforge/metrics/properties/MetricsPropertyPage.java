@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import net.sourceforge.metrics.builder.MetricsBuilder;
 import net.sourceforge.metrics.builder.MetricsNature;
 import net.sourceforge.metrics.core.Constants;
 import net.sourceforge.metrics.core.Log;
@@ -179,13 +180,18 @@ public class MetricsPropertyPage extends PropertyPage implements Constants {
 		 * @param p
 		 */
 		public void persistState() {
+			boolean enabledChanged = false;
 			TableTreeItem[] items = getItems();
 			for (TableTreeItem item : items) {
 				String id = (String) item.getData("id");
 				String val = (item.getChecked()) ? "true" : "false";
 				String mPatterns = item.getText(1);
 				try {
-					project.setPersistentProperty(new QualifiedName(Constants.PLUGIN_ID, id + ".enabled"), val);
+					QualifiedName enabled = new QualifiedName(Constants.PLUGIN_ID, id + ".enabled");
+					// no property means enabled
+					String old = project.getPersistentProperty(enabled);
+					enabledChanged |= !val.equals((old == null) ? "true" : old);
+					project.setPersistentProperty(enabled, val);
 					project.setPersistentProperty(new QualifiedName(Constants.PLUGIN_ID, id + ".patterns"), mPatterns);
 					TableTreeItem[] folders = item.getItems();
 					for (TableTreeItem folder : folders) {
@@ -200,6 +206,11 @@ public class MetricsPropertyPage extends PropertyPage implements Constants {
 					Log.logError("Could not persist property", e);
 				}
 			}
+			MetricsPlugin.getDefault().clearCalculatorPlans();
+			if (enabledChanged) {
+				// the metrics of disabled metrics are not calculated, see MetricsPlugin.getCalculators(String, String)
+				MetricsBuilder.recalculateStale();
+			}
 		}
 
 		private TableTreeItem createNewRow(MetricDescriptor md, IPackageFragmentRoot[] roots) {
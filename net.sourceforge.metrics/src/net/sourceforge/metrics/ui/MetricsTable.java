@@ -72,6 +72,7 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 	private TreeColumn max;
 	private TreeColumn path;
 	private TreeColumn method;
+	private TreeColumn quantiles;
 
 	/**
 	 * Constructor for MetricsTable.
@@ -97,6 +98,8 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 		path.setText("Resource causing Maximum");
 		method = new TreeColumn(this, SWT.LEFT);
 		method.setText("Method");
+		quantiles = new TreeColumn(this, SWT.RIGHT);
+		quantiles.setText("P50 / P90 / P99");
 		addSelectionListener(this);
 		addTreeListener(this);
 	}
@@ -118,7 +121,7 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 			for (int i = 0; i < names.length; i++) {
 				boolean rowNeeded = false;
 				String name = names[i];
-				String[] cols = new String[] { descriptions[i], "", "", "", "", "", "" };
+				String[] cols = new String[] { descriptions[i], "", "", "", "", "", "", "" };
 				Metric m = ms.getValue(name);
 				if (m != null) {
 					rowNeeded = true;
@@ -133,6 +136,7 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 						if (avg != null) {
 							cols[2] = format(avg.doubleValue());
 							cols[3] = format(avg.getStandardDeviation());
+							cols[7] = formatQuantiles(avg);
 						}
 						if (max != null) {
 							cols[4] = format(max.doubleValue());
@@ -276,6 +280,7 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 					Avg avg = element.getAverage(metric, per);
 					child.setText(2, (avg != null) ? format(avg.doubleValue()) : "");
 					child.setText(3, (avg != null) ? format(avg.getStandardDeviation()) : "");
+					child.setText(7, (avg != null) ? formatQuantiles(avg) : "");
 					Max max = element.getMaximum(metric, per);
 					child.setText(4, (max != null) ? format(max.doubleValue()) : "");
 					if (max != null) {
@@ -390,6 +395,13 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 		return nf.format(value);
 	}
 
+	private String formatQuantiles(Avg avg) {
+		if (avg.getSketch() == null) {
+			return "";
+		}
+		return format(avg.getQuantile(0.5)) + " / " + format(avg.getQuantile(0.9)) + " / " + format(avg.getQuantile(0.99));
+	}
+
 	/**
 	 * @see org.eclipse.swt.widgets.Widget#checkSubclass()
 	 */
@@ -445,6 +457,7 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 		max.setWidth(getWidth(memento, "max", 60));
 		path.setWidth(getWidth(memento, "path", 300));
 		method.setWidth(getWidth(memento, "method", 150));
+		quantiles.setWidth(getWidth(memento, "quantiles", 120));
 	}
 
 	void updateWidths(IMemento memento) {
@@ -455,6 +468,7 @@ public class MetricsTable extends Tree implements Constants, SelectionListener,
 		memento.putInteger("max", max.getWidth());
 		memento.putInteger("path", path.getWidth());
 		memento.putInteger("method", method.getWidth());
+		memento.putInteger("quantiles", quantiles.getWidth());
 	}
 
 	/*
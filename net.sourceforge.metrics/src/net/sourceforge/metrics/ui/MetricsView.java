@@ -25,12 +25,13 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.Set;
 
-import net.sourceforge.metrics.builder.IMetricsProgressListener;
+import net.sourceforge.metrics.builder.IMetricsProgressListener2;
 import net.sourceforge.metrics.builder.MetricsBuilder;
 import net.sourceforge.metrics.core.IExporter;
 import net.sourceforge.metrics.core.Log;
 import net.sourceforge.metrics.core.MetricsPlugin;
 import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.core.sources.Cache;
 import net.sourceforge.metrics.core.sources.Dispatcher;
 import net.sourceforge.metrics.core.sources.IGraphContributor;
 
@@ -78,7 +79,7 @@ import org.eclipse.ui.part.ViewPart;
  * 
  * @author Frank Sauer
  */
-public class MetricsView extends ViewPart implements ISelectionListener, IMetricsProgressListener, IPropertyChangeListener {
+public class MetricsView extends ViewPart implements ISelectionListener, IMetricsProgressListener2, IPropertyChangeListener {
 
 	// FIXME GB 04/15/2005 move that const to the approriate place
 	private static String pluginId = MetricsPlugin.getDefault().getBundle().getSymbolicName();
@@ -608,6 +609,12 @@ public class MetricsView extends ViewPart implements ISelectionListener, IMetric
 		incProgressBar();
 	}
 
+	public void unchanged(IJavaElement element, Object data) {
+		setStatus("unchanged " + element.getElementName(), shouldBeBusy(element));
+		queued--;
+		incProgressBar();
+	}
+
 	public void queued(int count) {
 		queued += count;
 		addWorkToProgressBar();
@@ -616,7 +623,7 @@ public class MetricsView extends ViewPart implements ISelectionListener, IMetric
 	public void projectComplete(IJavaProject project, boolean aborted) {
 		// Log.logMessage("Got projectComplete event.");
 		queued = 0;
-		setStatus("", false);
+		setStatus(Cache.singleton.getStatistics(), false);
 		resetProgressBar();
 		// force rendering of completed project
 		boolean showProject = MetricsPlugin.getDefault().showProjectOnCompletion();
@@ -19,7 +19,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import net.sourceforge.metrics.builder.IMetricsProgressListener;
+import net.sourceforge.metrics.builder.IMetricsProgressListener2;
 import net.sourceforge.metrics.builder.MetricsBuilder;
 import net.sourceforge.metrics.core.IExporter;
 import net.sourceforge.metrics.core.Log;
@@ -70,7 +70,7 @@ import org.eclipse.ui.part.ViewPart;
  * 
  * @author Frank Sauer
  */
-public class LayeredPackageTableView extends ViewPart implements ISelectionListener, IMetricsProgressListener, IPropertyChangeListener {
+public class LayeredPackageTableView extends ViewPart implements ISelectionListener, IMetricsProgressListener2, IPropertyChangeListener {
 
 	private final static String[] EXPLANATION = { "No metrics available for selection. To calculate and display metrics:", "", "    1) ensure you are in a java perspective using the package explorer,",
 			"    2) select a project and enable the metrics from its context menu,", "    3) perform a full rebuild on the project.", "",
@@ -589,6 +589,12 @@ public class LayeredPackageTableView extends ViewPart implements ISelectionListe
 		incProgressBar();
 	}
 
+	public void unchanged(IJavaElement element, Object data) {
+		setStatus("unchanged " + element.getElementName(), shouldBeBusy(element));
+		queued--;
+		incProgressBar();
+	}
+
 	public void queued(int count) {
 		queued += count;
 		addWorkToProgressBar();
@@ -61,6 +61,15 @@ public class MetricsPreferencePage extends FieldEditorPreferencePage implements
 		addField(new IntegerFieldEditor("METRICS.decimals", "Number of decimal places for Average and Standard Deviation", getFieldEditorParent()));
 		addField(new BooleanFieldEditor("METRICS.showProject", "Display project level metrics after a build completes", getFieldEditorParent()));
 		addField(new BooleanFieldEditor("METRICS.enablewarnings", "Enable out-of-range warnings", getFieldEditorParent()));
+		IntegerFieldEditor threads = new IntegerFieldEditor("METRICS.calculatorThreads", "Number of threads calculating compilation units in parallel", getFieldEditorParent());
+		threads.setValidRange(1, 64);
+		addField(threads);
+		IntegerFieldEditor memory = new IntegerFieldEditor("METRICS.memoryCache", "Memory for recently used metrics (KB, 0 to disable)", getFieldEditorParent());
+		memory.setValidRange(0, 1024 * 1024);
+		addField(memory);
+		IntegerFieldEditor delay = new IntegerFieldEditor("METRICS.buildDelay", "Wait for further changes after a save (milliseconds, 0 to calculate at once)", getFieldEditorParent());
+		delay.setValidRange(0, 60000);
+		addField(delay);
 		addField(new ListUpDownEditor("METRICS.displayOrder", "Display metrics in this order:", getFieldEditorParent()) {
 			@Override
 			protected String createList(String[] items) {
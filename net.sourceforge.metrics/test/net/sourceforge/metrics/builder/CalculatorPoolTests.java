@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.builder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.builder.MetricsBuilder.BatchCommand;
+
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+
+/**
+ * Lives in the builder package because the pool and the commands are internal to it
+ * 
+ * @author Frank Sauer
+ */
+public class CalculatorPoolTests extends TestCase {
+
+	public CalculatorPoolTests(String arg0) {
+		super(arg0);
+	}
+
+	public void testAbortInterruptsAllChunksOfAFolder() throws Exception {
+		IPackageFragmentRoot root = (IPackageFragmentRoot) element(IPackageFragmentRoot.class, "=proj/src", IJavaElement.PACKAGE_FRAGMENT_ROOT);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch interrupted = new CountDownLatch(2);
+		BlockingChunk first = new BlockingChunk(root, 0, started, interrupted);
+		BlockingChunk second = new BlockingChunk(root, 1, started, interrupted);
+		assertFalse("chunks of one folder are different commands", first.equals(second));
+		CalculatorPool pool = new CalculatorPool(2);
+		pool.submit(first);
+		pool.submit(second);
+		assertTrue("both chunks run at once", started.await(5, TimeUnit.SECONDS));
+		pool.abort("=proj");
+		assertTrue("both chunks are interrupted", interrupted.await(5, TimeUnit.SECONDS));
+		assertFalse(pool.isBusy());
+	}
+
+	public void testAbortLeavesOtherProjects() throws Exception {
+		IPackageFragmentRoot root = (IPackageFragmentRoot) element(IPackageFragmentRoot.class, "=projX/src", IJavaElement.PACKAGE_FRAGMENT_ROOT);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		BlockingChunk chunk = new BlockingChunk(root, 0, started, interrupted);
+		CalculatorPool pool = new CalculatorPool(1);
+		pool.submit(chunk);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		pool.abort("=proj");
+		assertFalse("a project whose name starts the same is not aborted", interrupted.await(200, TimeUnit.MILLISECONDS));
+		pool.abort("=projX");
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * @return a java element that only knows its handle, type and project, JavaCore can't create elements without a workspace
+	 */
+	private static Object element(Class<?> type, final String handle, final int elementType) {
+		return Proxy.newProxyInstance(CalculatorPoolTests.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getHandleIdentifier")) {
+					return handle;
+				} else if (name.equals("getElementType")) {
+					return Integer.valueOf(elementType);
+				} else if (name.equals("getElementName")) {
+					return handle.substring(handle.lastIndexOf('/') + 1);
+				} else if (name.equals("getJavaProject")) {
+					String project = (handle.indexOf('/') < 0) ? handle : handle.substring(0, handle.indexOf('/'));
+					return element(IJavaProject.class, project, IJavaElement.JAVA_PROJECT);
+				} else if (name.equals("equals")) {
+					return Boolean.valueOf(proxy == args[0]);
+				} else if (name.equals("hashCode")) {
+					return Integer.valueOf(handle.hashCode());
+				} else if (name.equals("toString")) {
+					return handle;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	/**
+	 * a chunk that calculates until it is interrupted
+	 */
+	private static class BlockingChunk extends BatchCommand {
+
+		private CountDownLatch started;
+		private CountDownLatch interrupted;
+
+		BlockingChunk(IPackageFragmentRoot root, int chunk, CountDownLatch started, CountDownLatch interrupted) {
+			super(root, new ICompilationUnit[0], chunk);
+			this.started = started;
+			this.interrupted = interrupted;
+		}
+
+		@Override
+		void execute() {
+			started.countDown();
+			try {
+				Thread.sleep(60000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+		}
+	}
+}
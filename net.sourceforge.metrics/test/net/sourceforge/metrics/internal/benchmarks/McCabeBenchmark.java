@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.benchmarks;
+
+import net.sourceforge.metrics.calculators.McCabe;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.sources.CompilationUnitMetrics;
+import net.sourceforge.metrics.core.sources.MethodMetrics;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.Expression;
+import org.eclipse.jdt.core.dom.ExpressionStatement;
+import org.eclipse.jdt.core.dom.IfStatement;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jdt.core.dom.WhileStatement;
+
+/**
+ * Manual timing tool, not a test. Compares McCabe's AST based && and || counting with the former approach of scanning a copy of the source text
+ * of every condition. Run it as a java application with the plugin's classpath, optionally passing the number of statements per generated
+ * method.
+ * 
+ * @author Frank Sauer
+ */
+public class McCabeBenchmark {
+
+	private static final int WARMUP = 5;
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) throws Exception {
+		int statements = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		String source = generate(statements);
+		ASTParser parser = ASTParser.newParser(CompilationUnitMetrics.AST_LEVEL);
+		parser.setSource(source.toCharArray());
+		CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+		MethodDeclaration method = ((TypeDeclaration) unit.types().get(0)).getMethods()[0];
+		ResultCollector collector = new ResultCollector(method);
+		McCabe mccabe = new McCabe();
+
+		for (int i = 0; i < WARMUP; i++) {
+			method.accept(new SubstringVisitor(source));
+			mccabe.calculate(collector);
+		}
+		long start = System.nanoTime();
+		SubstringVisitor old = null;
+		for (int i = 0; i < ROUNDS; i++) {
+			old = new SubstringVisitor(source);
+			method.accept(old);
+		}
+		long substring = (System.nanoTime() - start) / ROUNDS;
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			mccabe.calculate(collector);
+		}
+		long ast = (System.nanoTime() - start) / ROUNDS;
+		System.out.println(statements + " statements, cyclomatic " + old.cyclomatic + " (substring) / " + collector.result.intValue() + " (AST)");
+		System.out.println("substring scan: " + substring / 1000 + " us/method");
+		System.out.println("AST operators : " + ast / 1000 + " us/method");
+	}
+
+	/**
+	 * a method with nested conditions, each repeating the operators of the enclosing ones
+	 */
+	private static String generate(int statements) {
+		StringBuffer sb = new StringBuffer("class A { void m(boolean a, boolean b, boolean c, int i) {\n");
+		StringBuffer condition = new StringBuffer("a");
+		for (int n = 0; n < statements; n++) {
+			condition.append((n % 2 == 0) ? " && " : " || ").append((n % 3 == 0) ? "b" : "c");
+			if (n % 10 == 9) {
+				condition.setLength(1);
+			}
+			switch (n % 3) {
+			case 0:
+				sb.append("if (").append(condition).append(") { i++; }\n");
+				break;
+			case 1:
+				sb.append("boolean x").append(n).append(" = ").append(condition).append(";\n");
+				break;
+			default:
+				sb.append("while (").append(condition).append(") { i--; }\n");
+			}
+		}
+		return sb.append("} }").toString();
+	}
+
+	/**
+	 * keeps the calculated value without the range checks (they need the running plugin)
+	 */
+	private static class ResultCollector extends MethodMetrics {
+
+		private static final long serialVersionUID = 1L;
+		Metric result;
+
+		ResultCollector(MethodDeclaration declaration) {
+			super(declaration);
+		}
+
+		@Override
+		public void setValue(Metric value) {
+			result = value;
+		}
+	}
+
+	/**
+	 * the former McCabe visitor, reduced to the statements generate() emits
+	 */
+	private static class SubstringVisitor extends ASTVisitor {
+
+		int cyclomatic = 1;
+		private final String source;
+
+		SubstringVisitor(String source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean visit(IfStatement node) {
+			cyclomatic++;
+			inspectExpression(node.getExpression());
+			return true;
+		}
+
+		@Override
+		public boolean visit(WhileStatement node) {
+			cyclomatic++;
+			inspectExpression(node.getExpression());
+			return true;
+		}
+
+		@Override
+		public boolean visit(ExpressionStatement node) {
+			inspectExpression(node.getExpression());
+			return false;
+		}
+
+		@Override
+		public boolean visit(VariableDeclarationFragment node) {
+			inspectExpression(node.getInitializer());
+			return true;
+		}
+
+		private void inspectExpression(Expression ex) {
+			if (ex != null) {
+				int start = ex.getStartPosition();
+				char[] chars = source.substring(start, start + ex.getLength()).toCharArray();
+				for (int i = 0; i < chars.length - 1; i++) {
+					char next = chars[i];
+					if ((next == '&' || next == '|') && (next == chars[i + 1])) {
+						cyclomatic++;
+					}
+				}
+			}
+		}
+	}
+}
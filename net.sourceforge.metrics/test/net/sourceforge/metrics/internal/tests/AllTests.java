@@ -22,6 +22,7 @@ package net.sourceforge.metrics.internal.tests;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import net.sourceforge.metrics.builder.CalculatorPoolTests;
 
 /**
  * @author Frank Sauer
@@ -33,6 +34,19 @@ public class AllTests {
 		// $JUnit-BEGIN$
 		suite.addTest(new TestSuite(AvgTests.class));
 		suite.addTest(new TestSuite(MaxTests.class));
+		suite.addTest(new TestSuite(HandleIndexTests.class));
+		suite.addTest(new TestSuite(SourceSerializerTests.class));
+		suite.addTest(new TestSuite(FusedMethodVisitorTests.class));
+		suite.addTest(new TestSuite(McCabeTests.class));
+		suite.addTest(new TestSuite(PackageDependenciesTests.class));
+		suite.addTest(new TestSuite(PropagatorUpdateTests.class));
+		suite.addTest(new TestSuite(SourceCacheTests.class));
+		suite.addTest(new TestSuite(HandleDictionaryTests.class));
+		suite.addTest(new TestSuite(CalculatorContractTests.class));
+		suite.addTest(new TestSuite(CalculatorPlanTests.class));
+		suite.addTest(new TestSuite(MetricRegistryTests.class));
+		suite.addTest(new TestSuite(FusedPropagationTests.class));
+		suite.addTest(new TestSuite(CalculatorPoolTests.class));
 		// $JUnit-END$
 		return suite;
 	}
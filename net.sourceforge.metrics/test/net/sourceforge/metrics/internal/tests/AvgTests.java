@@ -26,6 +26,7 @@ import java.util.List;
 import junit.framework.TestCase;
 import net.sourceforge.metrics.core.Avg;
 import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.QuantileSketch;
 
 /**
  * @author Frank Sauer
@@ -88,6 +89,53 @@ public class AvgTests extends TestCase {
 		assertEquals("Wrong number of points", 8, result.getPoints());
 		assertEquals("Wrong average", 3.5, result.doubleValue(), 0);
 		assertEquals("Wrong variance", 3.0, result.getVariance(), 0);
+		assertEquals(8, result.getSketch().getCount());
+	}
+
+	public void testLargeOffset() {
+		// sum2 / points - avg * avg cancels all digits of the variance here
+		List<Metric> metrics = new ArrayList<Metric>();
+		for (Metric next : metrics1) {
+			metrics.add(new Metric(name1, 1e9 + next.doubleValue()));
+		}
+		Avg avg = Avg.createFromMetrics(name1, "per", metrics);
+		assertEquals(3.5, avg.getVariance(), 1e-6);
+		List<Avg> averages = new ArrayList<Avg>();
+		averages.add(avg);
+		averages.add(avg);
+		assertEquals(3.5, Avg.createFromAverages(name1, "per", averages).getVariance(), 1e-6);
+	}
+
+	public void testQuantiles() {
+		List<Metric> metrics = new ArrayList<Metric>();
+		for (int i = 1; i <= 1000; i++) {
+			metrics.add(new Metric(name1, i));
+		}
+		Avg avg = Avg.createFromMetrics(name1, "per", metrics);
+		assertEquals(500, avg.getQuantile(0.5), 500 * QuantileSketch.ACCURACY);
+		assertEquals(900, avg.getQuantile(0.9), 900 * QuantileSketch.ACCURACY);
+		assertEquals(990, avg.getQuantile(0.99), 990 * QuantileSketch.ACCURACY);
+		assertTrue(Double.isNaN(new Avg(name1, "per", 1, 0, 1).getQuantile(0.5)));
+	}
+
+	public void testUpdate() {
+		Avg avg1 = Avg.createFromMetrics(name1, "per", metrics1);
+		Avg avg2 = Avg.createFromMetrics(name1, "per", metrics2);
+		List<Avg> averages = new ArrayList<Avg>();
+		averages.add(avg1);
+		averages.add(avg2);
+		Avg both = Avg.createFromAverages(name1, "per", averages);
+		Avg result = Avg.update(both, avg2, null);
+		assertEquals(4, result.getPoints());
+		assertEquals(3, result.doubleValue(), 1e-12);
+		assertEquals(3.5, result.getVariance(), 1e-12);
+		assertEquals(4, result.getSketch().getCount());
+		assertEquals(avg1.getQuantile(0.9), result.getQuantile(0.9), 0);
+		result = Avg.update(result, null, Avg.createFromValue(name1, "per", 8));
+		assertEquals(5, result.getPoints());
+		assertEquals(4, result.doubleValue(), 1e-12);
+		assertEquals(6.8, result.getVariance(), 1e-12);
+		assertEquals(8, result.getQuantile(1), 8 * QuantileSketch.ACCURACY);
 	}
 
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.calculators.Calculator;
+import net.sourceforge.metrics.calculators.InheritanceDepth;
+import net.sourceforge.metrics.calculators.LackOfCohesion;
+import net.sourceforge.metrics.calculators.McCabe;
+import net.sourceforge.metrics.calculators.MethodLinesOfCode;
+import net.sourceforge.metrics.calculators.NestedBlockDepth;
+import net.sourceforge.metrics.calculators.Norm;
+import net.sourceforge.metrics.calculators.NumberOfAttributes;
+import net.sourceforge.metrics.calculators.NumberOfInheritedMethods;
+import net.sourceforge.metrics.calculators.NumberOfMethods;
+import net.sourceforge.metrics.calculators.NumberOfParameters;
+import net.sourceforge.metrics.calculators.RMartinCouplings;
+import net.sourceforge.metrics.calculators.SpecializationIndex;
+import net.sourceforge.metrics.calculators.SpecializationIndex2;
+import net.sourceforge.metrics.calculators.TotalLinesOfCode;
+import net.sourceforge.metrics.calculators.qmood.AverageNumberOfAncestors;
+import net.sourceforge.metrics.calculators.qmood.CohesionAmongMethodsOfClass;
+import net.sourceforge.metrics.calculators.qmood.DirectClassCoupling;
+import net.sourceforge.metrics.calculators.qmood.Effectiveness;
+import net.sourceforge.metrics.calculators.qmood.Extendibility;
+import net.sourceforge.metrics.calculators.qmood.Flexibility;
+import net.sourceforge.metrics.calculators.qmood.Functionality;
+import net.sourceforge.metrics.calculators.qmood.MeasureOfFunctionalAbstraction;
+import net.sourceforge.metrics.calculators.qmood.NumberOfHierarchies;
+import net.sourceforge.metrics.calculators.qmood.NumberOfNormalMethods;
+import net.sourceforge.metrics.calculators.qmood.Reusability;
+import net.sourceforge.metrics.calculators.qmood.Understandability;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.ICalculator;
+import net.sourceforge.metrics.core.ISerialCalculator;
+import net.sourceforge.metrics.core.MetricsPlugin;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.propagators.AvgAvg;
+import net.sourceforge.metrics.propagators.AvgValue;
+import net.sourceforge.metrics.propagators.MaxMax;
+import net.sourceforge.metrics.propagators.MaxValue;
+import net.sourceforge.metrics.propagators.Sum;
+
+/**
+ * Checks that the built-in calculators may run concurrently and that calculators keeping state are detected
+ * 
+ * @author Frank Sauer
+ */
+public class CalculatorContractTests extends TestCase {
+
+	private static final Class<?>[] BUILT_IN = { InheritanceDepth.class, LackOfCohesion.class, McCabe.class, MethodLinesOfCode.class,
+			NestedBlockDepth.class, Norm.class, NumberOfAttributes.class, NumberOfInheritedMethods.class, NumberOfMethods.class,
+			NumberOfParameters.class, RMartinCouplings.class, SpecializationIndex.class, SpecializationIndex2.class, TotalLinesOfCode.class,
+			AverageNumberOfAncestors.class, CohesionAmongMethodsOfClass.class, DirectClassCoupling.class, Effectiveness.class,
+			Extendibility.class, Flexibility.class, Functionality.class, MeasureOfFunctionalAbstraction.class, NumberOfHierarchies.class,
+			NumberOfNormalMethods.class, Reusability.class, Understandability.class };
+
+	static class Counting extends Calculator {
+		private int calls = 0;
+
+		Counting() {
+			super("counting");
+		}
+
+		@Override
+		public void calculate(AbstractMetricSource source) {
+			calls++;
+		}
+	}
+
+	static class Marked extends Calculator implements ISerialCalculator {
+		Marked() {
+			super("marked");
+		}
+
+		@Override
+		public void calculate(AbstractMetricSource source) {
+		}
+	}
+
+	public CalculatorContractTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(CalculatorContractTests.class);
+	}
+
+	public void testBuiltInCalculatorsAreStateless() throws Exception {
+		for (Class<?> next : BUILT_IN) {
+			assertFalse(next.getName(), MetricsPlugin.isSerial((ICalculator) next.getDeclaredConstructor().newInstance()));
+		}
+	}
+
+	public void testPropagatorsAreStateless() {
+		assertFalse(MetricsPlugin.isSerial(new Sum(Constants.MLOC)));
+		assertFalse(MetricsPlugin.isSerial(new AvgValue(Constants.MCCABE, Constants.PER_METHOD)));
+		assertFalse(MetricsPlugin.isSerial(new AvgAvg(Constants.MCCABE, Constants.PER_METHOD)));
+		assertFalse(MetricsPlugin.isSerial(new MaxValue(Constants.MCCABE, Constants.PER_METHOD)));
+		assertFalse(MetricsPlugin.isSerial(new MaxMax(Constants.MCCABE, Constants.PER_METHOD)));
+	}
+
+	public void testSerialCalculators() {
+		assertTrue(MetricsPlugin.isSerial(new Counting()));
+		assertTrue(MetricsPlugin.isSerial(new Marked()));
+	}
+}
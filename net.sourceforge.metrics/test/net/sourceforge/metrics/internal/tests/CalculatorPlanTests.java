@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.calculators.Calculator;
+import net.sourceforge.metrics.core.CalculatorPlan;
+import net.sourceforge.metrics.core.ICalculator;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+
+/**
+ * Checks the order and pruning of calculators by CalculatorPlan
+ * 
+ * @author Frank Sauer
+ */
+public class CalculatorPlanTests extends TestCase {
+
+	static class Named extends Calculator {
+		Named(String name) {
+			super(name);
+		}
+
+		@Override
+		public void calculate(AbstractMetricSource source) {
+		}
+	}
+
+	private List<ICalculator> calculators;
+	private Map<String, String[]> requires;
+
+	public CalculatorPlanTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(CalculatorPlanTests.class);
+	}
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		calculators = new ArrayList<ICalculator>();
+		for (String name : new String[] { "SIX", "NOM", "NORM", "DIT", "LCOM", "RMC" }) {
+			calculators.add(new Named(name));
+		}
+		requires = new HashMap<String, String[]>();
+		requires.put("SIX", new String[] { "NOM", "NORM", "DIT" });
+		requires.put("NOM", null);
+		requires.put("NORM", null);
+		requires.put("DIT", null);
+		requires.put("LCOM", null);
+	}
+
+	private List<String> plan(String... disabled) {
+		Set<String> off = new HashSet<String>(Arrays.asList(disabled));
+		List<String> result = new ArrayList<String>();
+		for (ICalculator c : CalculatorPlan.plan(calculators, requires, off)) {
+			result.add(c.getName());
+		}
+		return result;
+	}
+
+	public void testRequiredFirst() {
+		assertEquals(Arrays.asList("NOM", "NORM", "DIT", "SIX", "LCOM", "RMC"), plan());
+	}
+
+	public void testDisabledPruned() {
+		assertEquals(Arrays.asList("NOM", "NORM", "DIT", "RMC"), plan("SIX", "LCOM"));
+	}
+
+	public void testRequiredKept() {
+		assertEquals(Arrays.asList("NOM", "NORM", "DIT", "SIX", "LCOM", "RMC"), plan("NORM"));
+		assertEquals(Arrays.asList("NOM", "DIT", "LCOM", "RMC"), plan("NORM", "SIX"));
+	}
+
+	public void testCycle() {
+		requires.put("NOM", new String[] { "SIX" });
+		assertEquals(6, plan().size());
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.calculators.FusedMethodVisitor;
+import net.sourceforge.metrics.calculators.IFusedCalculator;
+import net.sourceforge.metrics.calculators.MethodBodyVisitor;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.core.sources.CompilationUnitMetrics;
+import net.sourceforge.metrics.core.sources.MethodMetrics;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclarationStatement;
+
+/**
+ * Checks that the fused traversal gives every visitor the same view of the method as a traversal of its own
+ * 
+ * @author Frank Sauer
+ */
+public class FusedMethodVisitorTests extends TestCase {
+
+	private static final String SOURCE = "class A { void m(int a) { if (a > 0) { while (a-- > 0) { a++; } } "
+			+ "Runnable r = new Runnable() { public void run() { { int x = 1; } } }; "
+			+ "class Local { void n() { for (;;) { { { } } } } } } }";
+
+	private MethodDeclaration method;
+
+	public FusedMethodVisitorTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(FusedMethodVisitorTests.class);
+	}
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		ASTParser parser = ASTParser.newParser(CompilationUnitMetrics.AST_LEVEL);
+		parser.setSource(SOURCE.toCharArray());
+		CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+		method = ((TypeDeclaration) unit.types().get(0)).getMethods()[0];
+	}
+
+	public void testSameResultsAsSeparateTraversals() throws Exception {
+		TestCalculator depth = new TestCalculator(false);
+		TestCalculator pruning = new TestCalculator(true);
+		List<TestCalculator> calculators = new ArrayList<TestCalculator>();
+		calculators.add(depth);
+		calculators.add(pruning);
+		FusedMethodVisitor.calculate(new MethodMetrics(method), calculators);
+
+		Counter all = new Counter(false);
+		method.accept(all);
+		Counter pruned = new Counter(true);
+		method.accept(pruned);
+		assertEquals("max depth", 5, all.maxDepth);
+		assertEquals("max depth", all.maxDepth, depth.maxDepth);
+		assertEquals("nodes", all.nodes, depth.nodes);
+		assertEquals("max depth when pruned", 3, pruned.maxDepth);
+		assertEquals("max depth when pruned", pruned.maxDepth, pruning.maxDepth);
+		assertEquals("nodes when pruned", pruned.nodes, pruning.nodes);
+		assertTrue("pruned less nodes", pruning.nodes < depth.nodes);
+	}
+
+	private static boolean isType(ASTNode node) {
+		return node.getNodeType() == ASTNode.TYPE_DECLARATION_STATEMENT || node.getNodeType() == ASTNode.ANONYMOUS_CLASS_DECLARATION;
+	}
+
+	/**
+	 * reference implementation as a plain ASTVisitor
+	 */
+	private static class Counter extends ASTVisitor {
+
+		private final boolean pruneTypes;
+		int nodes = 0;
+		int depth = 0;
+		int maxDepth = 0;
+
+		Counter(boolean pruneTypes) {
+			this.pruneTypes = pruneTypes;
+		}
+
+		@Override
+		public void preVisit(ASTNode node) {
+			nodes++;
+		}
+
+		@Override
+		public boolean visit(Block node) {
+			maxDepth = Math.max(maxDepth, ++depth);
+			return true;
+		}
+
+		@Override
+		public void endVisit(Block node) {
+			depth--;
+		}
+
+		@Override
+		public boolean visit(AnonymousClassDeclaration node) {
+			return !pruneTypes;
+		}
+
+		@Override
+		public boolean visit(TypeDeclarationStatement node) {
+			return !pruneTypes;
+		}
+	}
+
+	private static class TestCalculator implements IFusedCalculator {
+
+		private final boolean pruneTypes;
+		int nodes = 0;
+		int maxDepth = 0;
+
+		TestCalculator(boolean pruneTypes) {
+			this.pruneTypes = pruneTypes;
+		}
+
+		public String getName() {
+			return "TEST";
+		}
+
+		public void setName(String name) {
+		}
+
+		public void calculate(AbstractMetricSource source) {
+		}
+
+		public MethodBodyVisitor createVisitor(AbstractMetricSource source) {
+			return new MethodBodyVisitor() {
+
+				int depth = 0;
+
+				@Override
+				public boolean visit(ASTNode node) {
+					nodes++;
+					if (node.getNodeType() == ASTNode.BLOCK) {
+						maxDepth = Math.max(maxDepth, ++depth);
+					}
+					return !(pruneTypes && isType(node));
+				}
+
+				@Override
+				public void endVisit(ASTNode node) {
+					if (node.getNodeType() == ASTNode.BLOCK) {
+						depth--;
+					}
+				}
+
+				@Override
+				public void store(AbstractMetricSource metricSource) {
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.internal.tests.PropagatorUpdateTests.Source;
+import net.sourceforge.metrics.propagators.AvgAvg;
+import net.sourceforge.metrics.propagators.AvgValue;
+import net.sourceforge.metrics.propagators.FusedPropagation;
+import net.sourceforge.metrics.propagators.MaxMax;
+import net.sourceforge.metrics.propagators.MaxValue;
+import net.sourceforge.metrics.propagators.Propagator;
+import net.sourceforge.metrics.propagators.Sum;
+
+import org.eclipse.jdt.core.IJavaElement;
+
+/**
+ * Golden test: the single pass of FusedPropagation must store exactly what calling calculate() on each propagator stores
+ * 
+ * @author Frank Sauer
+ */
+public class FusedPropagationTests extends TestCase {
+
+	private static final String PROJECT = "=proj/src<com.acme{";
+	private static final String[] NAMES = { "NAME1", "NAME2", "NAME3" };
+
+	public FusedPropagationTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(FusedPropagationTests.class);
+	}
+
+	public void testSameAsPropagators() throws Exception {
+		List<Propagator> propagators = new ArrayList<Propagator>();
+		for (String name : NAMES) {
+			propagators.add(new Sum(name));
+			propagators.add(new AvgValue(name, Constants.PER_CLASS));
+			propagators.add(new MaxValue(name, Constants.PER_CLASS));
+			propagators.add(new AvgAvg(name, Constants.PER_METHOD));
+			propagators.add(new MaxMax(name, Constants.PER_METHOD));
+		}
+		Source expected = createParent(37);
+		for (Propagator p : propagators) {
+			p.calculate(expected);
+		}
+		Source actual = createParent(37);
+		FusedPropagation.calculate(actual, propagators);
+		assertSame(expected.getValues(), actual.getValues());
+		assertSame(expected.getAverages(), actual.getAverages());
+		assertSame(expected.getMaxima(), actual.getMaxima());
+	}
+
+	public void testNoChildren() throws Exception {
+		List<Propagator> propagators = new ArrayList<Propagator>();
+		propagators.add(new Sum(NAMES[0]));
+		propagators.add(new AvgValue(NAMES[0], Constants.PER_CLASS));
+		propagators.add(new AvgAvg(NAMES[0], Constants.PER_METHOD));
+		propagators.add(new MaxMax(NAMES[0], Constants.PER_METHOD));
+		Source expected = createParent(0);
+		for (Propagator p : propagators) {
+			p.calculate(expected);
+		}
+		Source actual = createParent(0);
+		FusedPropagation.calculate(actual, propagators);
+		assertSame(expected.getValues(), actual.getValues());
+		assertSame(expected.getAverages(), actual.getAverages());
+		assertSame(expected.getMaxima(), actual.getMaxima());
+	}
+
+	/**
+	 * A parent with the given number of children, each with pseudo random values (the same for the same count), an average and a maximum per
+	 * method for every name. Some children have equal maxima, so ties have to be broken the same way.
+	 */
+	private Source createParent(int count) {
+		Source parent = new Source(PROJECT.substring(0, PROJECT.length() - 1));
+		long seed = 17;
+		for (int i = 0; i < count; i++) {
+			Source child = new Child(PROJECT + "C" + i + ".java");
+			for (String name : NAMES) {
+				seed = (seed * 6364136223846793005L + 1442695040888963407L);
+				double value = (seed >>> 40) % 50;
+				child.getValues().put(name, new Metric(name, value / ((i % 3) + 1)));
+				child.setAverage(Avg.createFromValues(name, Constants.PER_METHOD, new double[] { value, i, 1e9 + i }, 3));
+				Max max = new Max(name, Constants.PER_METHOD, value % 7);
+				max.setHandle(child.getHandle() + "[T~m" + i);
+				child.setMaximum(max);
+			}
+			parent.getChildren().add(child);
+		}
+		return parent;
+	}
+
+	/**
+	 * A child whose java element only knows its handle, JavaCore can't create elements without a workspace
+	 */
+	static class Child extends Source {
+
+		private static final long serialVersionUID = 1L;
+
+		Child(String handle) {
+			super(handle);
+		}
+
+		@Override
+		public IJavaElement getJavaElement() {
+			return (IJavaElement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IJavaElement.class }, new InvocationHandler() {
+
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("getHandleIdentifier")) {
+						return getHandle();
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+	private <V extends Metric> void assertSame(Map<String, V> expected, Map<String, V> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, V> next : expected.entrySet()) {
+			V e = next.getValue();
+			V a = actual.get(next.getKey());
+			assertEquals(next.getKey(), e.getClass(), a.getClass());
+			assertEquals(next.getKey(), e.getName(), a.getName());
+			assertEquals(next.getKey(), e.getPer(), a.getPer());
+			assertEquals(next.getKey(), Double.doubleToLongBits(e.doubleValue()), Double.doubleToLongBits(a.doubleValue()));
+			assertEquals(next.getKey(), e.isPropagated(), a.isPropagated());
+			if (e instanceof Avg) {
+				Avg ea = (Avg) e, aa = (Avg) a;
+				assertEquals(next.getKey(), ea.getPoints(), aa.getPoints());
+				assertEquals(next.getKey(), Double.doubleToLongBits(ea.getVariance()), Double.doubleToLongBits(aa.getVariance()));
+				assertEquals(next.getKey(), ea.getSketch().size(), aa.getSketch().size());
+				for (int i = 0; i < ea.getSketch().size(); i++) {
+					assertEquals(ea.getSketch().getKey(i), aa.getSketch().getKey(i));
+					assertEquals(ea.getSketch().getCount(i), aa.getSketch().getCount(i));
+				}
+			} else if (e instanceof Max) {
+				assertEquals(next.getKey(), ((Max) e).getHandle(), ((Max) a).getHandle());
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.sources.HandleDictionary;
+
+/**
+ * @author Frank Sauer
+ */
+public class HandleDictionaryTests extends TestCase {
+
+	private static final String TYPE = "=proj/src<com.acme.foo{Bar.java[Bar";
+
+	public HandleDictionaryTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(HandleDictionaryTests.class);
+	}
+
+	public void testIds() {
+		HandleDictionary dictionary = new HandleDictionary();
+		int id = dictionary.getId(TYPE);
+		assertEquals("ids start at 1", 1, id);
+		assertEquals(id, dictionary.getId(new String(TYPE)));
+		assertEquals(2, dictionary.getId(TYPE + "~baz~I"));
+		assertEquals(TYPE, dictionary.getHandle(id));
+		assertEquals(0, dictionary.getId(null));
+		assertNull(dictionary.getHandle(0));
+		assertNull(dictionary.getHandle(3));
+		assertEquals(2, dictionary.size());
+	}
+
+	public void testRemove() {
+		HandleDictionary dictionary = new HandleDictionary();
+		String pkg = "=proj/src<com.acme.foo";
+		int type = dictionary.getId(TYPE);
+		int method = dictionary.getId(TYPE + "~baz~I");
+		int sibling = dictionary.getId("=proj/src<com.acme.foobar{X.java");
+		int other = dictionary.getId("=proj2/src<com.acme.foo{Y.java");
+		dictionary.remove(pkg);
+		assertNull(dictionary.getHandle(type));
+		assertNull(dictionary.getHandle(method));
+		assertEquals("a package whose name starts the same stays", "=proj/src<com.acme.foobar{X.java", dictionary.getHandle(sibling));
+		assertEquals("=proj2/src<com.acme.foo{Y.java", dictionary.getHandle(other));
+		assertEquals(2, dictionary.size());
+		assertEquals("ids are not reused", 5, dictionary.getId(TYPE));
+		dictionary.remove("=proj");
+		assertEquals(1, dictionary.size());
+	}
+
+	public void testIntern() {
+		HandleDictionary dictionary = new HandleDictionary();
+		String first = dictionary.intern(new String(TYPE));
+		assertSame(first, dictionary.intern(new String(TYPE)));
+	}
+
+	public void testProjectName() {
+		assertEquals("proj", HandleDictionary.getProjectName(TYPE));
+		assertEquals("proj", HandleDictionary.getProjectName("=proj"));
+		assertEquals("a/b(c", HandleDictionary.getProjectName("=a\\/b\\(c/src<x"));
+		assertNull(HandleDictionary.getProjectName("/proj/src"));
+	}
+
+	public void testMaxKeepsHandle() throws Exception {
+		Max max = new Max("NAME", "per", 3);
+		assertNull(max.getHandle());
+		max.setHandle(TYPE);
+		assertEquals(TYPE, max.getHandle());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(max);
+		out.close();
+		Max copy = (Max) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals(TYPE, copy.getHandle());
+		assertEquals(3, copy.intValue());
+	}
+}
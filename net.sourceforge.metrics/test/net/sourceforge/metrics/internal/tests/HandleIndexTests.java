@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.sources.HandleIndex;
+
+/**
+ * @author Frank Sauer
+ */
+public class HandleIndexTests extends TestCase {
+
+	private static final String PROJECT = "=proj";
+	private static final String ROOT = "=proj/src";
+	private static final String PACKAGE = "=proj/src<com.acme";
+	private static final String SUBPACKAGE = "=proj/src<com.acme.foo";
+	private static final String CU = "=proj/src<com.acme{Bar.java";
+	private static final String TYPE = "=proj/src<com.acme{Bar.java[Bar";
+	private static final String OTHERTYPE = "=proj/src<com.acme{Bar.java[Barx";
+	private static final String INNER = "=proj/src<com.acme{Bar.java[Bar[Inner";
+	private static final String METHOD = "=proj/src<com.acme{Bar.java[Bar~baz~I";
+	private static final String OVERLOAD = "=proj/src<com.acme{Bar.java[Bar~baz~I~I";
+	private static final String INNERMETHOD = "=proj/src<com.acme{Bar.java[Bar[Inner~run";
+	private static final String SUBCU = "=proj/src<com.acme.foo{Foo.java";
+	private static final String OTHERPROJECT = "=proj2";
+
+	private HandleIndex index;
+
+	/**
+	 * Constructor for HandleIndexTests.
+	 * 
+	 * @param arg0
+	 */
+	public HandleIndexTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(HandleIndexTests.class);
+	}
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		index = new HandleIndex();
+		index.add(PROJECT, Constants.PROJECT);
+		index.add(ROOT, Constants.PACKAGEROOT);
+		index.add(PACKAGE, Constants.PACKAGEFRAGMENT);
+		index.add(SUBPACKAGE, Constants.PACKAGEFRAGMENT);
+		index.add(CU, Constants.COMPILATIONUNIT);
+		index.add(TYPE, Constants.TYPE);
+		index.add(OTHERTYPE, Constants.TYPE);
+		index.add(INNER, Constants.TYPE);
+		index.add(METHOD, Constants.METHOD);
+		index.add(OVERLOAD, Constants.METHOD);
+		index.add(INNERMETHOD, Constants.METHOD);
+		index.add(SUBCU, Constants.COMPILATIONUNIT);
+		index.add(OTHERPROJECT, Constants.PROJECT);
+	}
+
+	public void testDescendants() {
+		assertEquals(11, index.getDescendants(PROJECT).size());
+		assertEquals(Arrays.asList(new String[] { CU, TYPE, INNER, INNERMETHOD, OTHERTYPE, METHOD, OVERLOAD }), index.getDescendants(PACKAGE));
+		assertEquals(Arrays.asList(new String[] { INNER, INNERMETHOD, METHOD, OVERLOAD }), index.getDescendants(TYPE));
+		assertTrue(index.getDescendants(OTHERPROJECT).isEmpty());
+	}
+
+	public void testChildren() {
+		assertEquals(Arrays.asList(new String[] { ROOT }), index.getChildren(PROJECT));
+		assertEquals(Arrays.asList(new String[] { PACKAGE, SUBPACKAGE }), index.getChildren(ROOT));
+		assertEquals(Arrays.asList(new String[] { CU }), index.getChildren(PACKAGE));
+		assertEquals(Arrays.asList(new String[] { TYPE, OTHERTYPE }), index.getChildren(CU));
+		assertEquals(Arrays.asList(new String[] { INNER, METHOD, OVERLOAD }), index.getChildren(TYPE));
+	}
+
+	public void testRemoveSubtree() {
+		List<String> removed = index.removeSubtree(PACKAGE);
+		assertEquals(8, removed.size());
+		assertFalse(index.contains(TYPE));
+		assertTrue(index.contains(SUBPACKAGE));
+		assertTrue(index.contains(SUBCU));
+		assertEquals(Arrays.asList(new String[] { SUBPACKAGE }), index.getChildren(ROOT));
+		assertEquals(5, index.size());
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.calculators.McCabe;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.sources.CompilationUnitMetrics;
+import net.sourceforge.metrics.core.sources.MethodMetrics;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+
+/**
+ * @author Frank Sauer
+ */
+public class McCabeTests extends TestCase {
+
+	public McCabeTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(McCabeTests.class);
+	}
+
+	public void testBranches() throws Exception {
+		assertEquals(1, mccabe("void m() { }"));
+		assertEquals(1, mccabe("abstract void m();"));
+		assertEquals(6, mccabe("void m(int a) { if (a > 0) { while (a-- > 0) { } } for (;;) { } do { } while (a < 0); try { } catch (Exception e) { } }"));
+		assertEquals(3, mccabe("void m(int a) { switch (a) { case 1: case 2: break; default: } }"));
+		assertEquals(3, mccabe("void m(int[] a) { for (int i : a) { int b = i > 0 ? i : -i; } }"));
+	}
+
+	public void testConditionalOperators() throws Exception {
+		assertEquals(4, mccabe("void m(boolean a, boolean b, boolean c) { if (a && b || c) { } }"));
+		assertEquals(3, mccabe("boolean m(boolean a, boolean b, boolean c) { return a && b && c; }"));
+		assertEquals(3, mccabe("void m(boolean a, boolean b) { boolean c = a || b; c = a && b; }"));
+		assertEquals("bitwise operators are not conditional", 1, mccabe("int m(int a, int b) { return a & b | a; }"));
+		assertEquals("operators in literals do not count", 1, mccabe("String m() { return \"a && b || c\"; }"));
+	}
+
+	public void testNestedTypesIgnored() throws Exception {
+		assertEquals(2, mccabe("void m(final boolean a) { if (a) { } new Runnable() { public void run() { if (a && a) { } } }; }"));
+	}
+
+	/**
+	 * Values that changed when McCabe stopped scanning the source text of conditions, expression statements and initializers and started visiting
+	 * the whole method body. The messages give the former value.
+	 */
+	public void testChangedFromSourceScan() throws Exception {
+		assertEquals("?: in an expression statement was not visited, was 1", 2, mccabe("void m(int a, int b) { b = a > 0 ? a : -a; }"));
+		assertEquals("?: in a loop body statement was not visited, was 2", 3, mccabe("void m(int a) { while (a > 0) { a = a > 1 ? a - 2 : a - 1; } }"));
+		assertEquals("return statements were not scanned, was 1", 2, mccabe("boolean m(boolean a, boolean b) { return a && b; }"));
+		assertEquals("the condition of ?: was scanned twice, was 4", 3, mccabe("void m(boolean a, boolean b) { boolean c = a && b ? a : b; }"));
+		assertEquals("literals were scanned, was 2", 1, mccabe("void m() { String s = \"a && b\"; }"));
+		assertEquals("lambdas in expression statements were not visited, was 1", 2,
+				mccabe("void m(java.util.List<String> l) { l.forEach(s -> { if (s.isEmpty()) { } }); }"));
+	}
+
+	/**
+	 * Values that did not change
+	 */
+	public void testUnchangedFromSourceScan() throws Exception {
+		assertEquals(2, mccabe("void m(boolean a, boolean b) { foo(a || b); }"));
+		assertEquals(2, mccabe("void m(boolean a) { Runnable r = () -> { if (a) { } }; }"));
+	}
+
+	private int mccabe(String method) throws Exception {
+		ASTParser parser = ASTParser.newParser(CompilationUnitMetrics.AST_LEVEL);
+		Map<String, String> options = new HashMap<String, String>();
+		options.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_1_8);
+		options.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_1_8);
+		options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, JavaCore.VERSION_1_8);
+		parser.setCompilerOptions(options);
+		parser.setSource(("abstract class A { " + method + " }").toCharArray());
+		CompilationUnit unit = (CompilationUnit) parser.createAST(null);
+		MethodDeclaration declaration = ((TypeDeclaration) unit.types().get(0)).getMethods()[0];
+		ResultCollector source = new ResultCollector(declaration);
+		new McCabe().calculate(source);
+		return source.result.intValue();
+	}
+
+	/**
+	 * keeps the calculated value without the range checks (they need the running plugin)
+	 */
+	static class ResultCollector extends MethodMetrics {
+
+		private static final long serialVersionUID = 1L;
+		Metric result;
+
+		ResultCollector(MethodDeclaration declaration) {
+			super(declaration);
+		}
+
+		@Override
+		public void setValue(Metric value) {
+			result = value;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.MetricRegistry;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.internal.tests.PropagatorUpdateTests.Source;
+
+/**
+ * Checks the slot numbering of MetricRegistry and the map views of the slot storage in AbstractMetricSource
+ * 
+ * @author Frank Sauer
+ */
+public class MetricRegistryTests extends TestCase {
+
+	public MetricRegistryTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(MetricRegistryTests.class);
+	}
+
+	public void testSlots() {
+		MetricRegistry registry = MetricRegistry.singleton;
+		int slot = registry.getSlot("REGISTRY1");
+		assertEquals(slot, registry.getSlot(new String("REGISTRY1")));
+		assertEquals(slot, registry.findSlot("REGISTRY1"));
+		assertEquals("REGISTRY1", registry.getId(slot));
+		assertEquals(-1, registry.findSlot("REGISTRY_UNKNOWN"));
+		int scope = registry.getScopeSlot(Constants.PER_CLASS);
+		assertEquals(Constants.PER_CLASS + "REGISTRY1", registry.getKey(scope, slot));
+		assertSame(registry.getKey(scope, slot), registry.getKey(scope, slot));
+		int[] pair = registry.findPair(Constants.PER_CLASS + "REGISTRY1");
+		assertEquals(scope, pair[0]);
+		assertEquals(slot, pair[1]);
+		assertNull(registry.findPair("nowhereREGISTRY1"));
+	}
+
+	public void testMapViews() {
+		Source source = new Source("source");
+		source.getValues().put("REGISTRY2", new Metric("REGISTRY2", 2));
+		source.setAverage(new Avg("REGISTRY2", Constants.PER_METHOD, 3, 0, 1));
+		source.setAverage(new Avg("REGISTRY2", Constants.PER_CLASS, 4, 0, 1));
+		source.setMaximum(new Max("REGISTRY2", Constants.PER_METHOD, 5));
+		assertEquals(2, source.getValue("REGISTRY2").doubleValue(), 0);
+		assertEquals(2, source.getValues().get("REGISTRY2").doubleValue(), 0);
+		assertEquals(3, source.getAverage("REGISTRY2", Constants.PER_METHOD).doubleValue(), 0);
+		assertEquals(4, source.getAverages().get(Constants.PER_CLASS + "REGISTRY2").doubleValue(), 0);
+		assertEquals(5, source.getMaximum("REGISTRY2", Constants.PER_METHOD).doubleValue(), 0);
+		assertNull(source.getMaximum("REGISTRY2", Constants.PER_CLASS));
+		assertNull(source.getAverage("REGISTRY_UNKNOWN", Constants.PER_CLASS));
+		assertEquals(2, source.getAverages().size());
+		int found = 0;
+		for (Map.Entry<String, Avg> next : source.getAverages().entrySet()) {
+			assertEquals(next.getValue().getPer() + next.getValue().getName(), next.getKey());
+			found++;
+		}
+		assertEquals(2, found);
+		source.setAverage(new Avg("REGISTRY2", Constants.PER_CLASS, 6, 0, 1));
+		assertEquals(2, source.getAverages().size());
+		assertEquals(6, source.getAverage("REGISTRY2", Constants.PER_CLASS).doubleValue(), 0);
+		assertNotNull(source.getAverages().remove(Constants.PER_METHOD + "REGISTRY2"));
+		assertNull(source.getAverage("REGISTRY2", Constants.PER_METHOD));
+		Iterator<Metric> values = source.getValues().values().iterator();
+		values.next();
+		values.remove();
+		assertTrue(source.getValues().isEmpty());
+	}
+
+	public void testCopyAndSerialization() throws Exception {
+		Source source = new Source("source");
+		source.setAverage(new Avg("REGISTRY3", Constants.PER_PACKAGE, 3, 0, 1));
+		AbstractMetricSource copy = source.copy();
+		source.setAverage(new Avg("REGISTRY3", Constants.PER_PACKAGE, 4, 0, 1));
+		assertEquals(3, copy.getAverage("REGISTRY3", Constants.PER_PACKAGE).doubleValue(), 0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(source);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		AbstractMetricSource read = (AbstractMetricSource) in.readObject();
+		assertEquals(4, read.getAverage("REGISTRY3", Constants.PER_PACKAGE).doubleValue(), 0);
+		assertEquals(1, read.getAverages().size());
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.sources.PackageDependencies;
+
+/**
+ * @author Frank Sauer
+ */
+public class PackageDependenciesTests extends TestCase {
+
+	private static final String FOO = "=proj/src<com.acme.foo";
+	private static final String FOOBAR = "=proj/src<com.acme.foobar";
+	private static final String BAR = "=proj/src<com.acme.bar";
+	private static final String UTIL = "=proj/jre.jar<java.util";
+
+	private PackageDependencies graph = PackageDependencies.singleton;
+
+	public PackageDependenciesTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(PackageDependenciesTests.class);
+	}
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		graph.clear();
+		graph.setDependencies(FOO + "{A.java", packages(BAR, UTIL));
+		graph.setDependencies(FOO + "{B.java", packages(UTIL));
+		graph.setDependencies(FOOBAR + "{C.java", packages(FOO, BAR));
+		graph.setDependencies(BAR + "{D.java", packages(FOO));
+	}
+
+	/**
+	 * @see junit.framework.TestCase#tearDown()
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		graph.clear();
+		super.tearDown();
+	}
+
+	public void testAfferent() {
+		assertEquals(2, graph.getAfferentCoupling(FOO));
+		assertEquals(2, graph.getAfferentCoupling(BAR));
+		assertEquals(0, graph.getAfferentCoupling(FOOBAR));
+		assertEquals(2, graph.getAfferentCoupling(UTIL));
+	}
+
+	public void testEfferent() {
+		Map<String, Set<String>> units = graph.getEfferentDependencies(FOO);
+		assertEquals("units of foo, not foobar", Arrays.asList(FOO + "{A.java", FOO + "{B.java"), Arrays.asList(units.keySet().toArray()));
+		assertEquals(packages(BAR, UTIL), units.get(FOO + "{A.java"));
+	}
+
+	public void testRecalculate() {
+		graph.setDependencies(FOOBAR + "{C.java", packages(BAR));
+		assertEquals(1, graph.getAfferentCoupling(FOO));
+		assertEquals(2, graph.getAfferentCoupling(BAR));
+	}
+
+	public void testRemove() {
+		graph.remove(BAR + "{D.java");
+		assertEquals(1, graph.getAfferentCoupling(FOO));
+		graph.remove(FOO);
+		assertEquals(1, graph.getAfferentCoupling(BAR));
+		assertEquals(0, graph.getAfferentCoupling(UTIL));
+		assertEquals(1, graph.getEfferentDependencies(FOOBAR).size());
+		graph.clear("=proj");
+		assertEquals(0, graph.getAfferentCoupling(BAR));
+		assertTrue(graph.getEfferentDependencies(FOOBAR).isEmpty());
+	}
+
+	private static Set<String> packages(String... handles) {
+		return new TreeSet<String>(Arrays.asList(handles));
+	}
+}
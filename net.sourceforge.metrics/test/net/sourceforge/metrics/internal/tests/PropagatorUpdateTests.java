@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.internal.xml.IXMLExporter;
+import net.sourceforge.metrics.propagators.AvgAvg;
+import net.sourceforge.metrics.propagators.AvgValue;
+import net.sourceforge.metrics.propagators.MaxMax;
+import net.sourceforge.metrics.propagators.MaxValue;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+/**
+ * Checks that updating a propagated value for one changed child gives the same result as calculating it from all children
+ */
+public class PropagatorUpdateTests extends TestCase {
+
+	private static String name1 = "NAME1";
+	private static String per = "per";
+
+	public PropagatorUpdateTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(PropagatorUpdateTests.class);
+	}
+
+	public void testAvgValueUpdate() {
+		Source parent = new Source("parent");
+		parent.setAverage(new Avg(name1, per, 3, 3.5, 4)); // 1, 3, 2, 6
+		AvgValue avg = new AvgValue(name1, per);
+		assertTrue(avg.update(parent, child("c4", 6), child("c4", 2)));
+		assertAvg(parent.getAverage(name1, per), 4, 2, 0.5);
+		assertTrue(avg.update(parent, null, child("c5", 7)));
+		assertAvg(parent.getAverage(name1, per), 5, 3, 4.4);
+		assertTrue(avg.update(parent, child("c5", 7), null));
+		assertAvg(parent.getAverage(name1, per), 4, 2, 0.5);
+	}
+
+	public void testAvgAvgUpdate() {
+		Source parent = new Source("parent");
+		parent.setAverage(new Avg(name1, per, 3.5, 3.0, 8)); // 1, 3, 2, 6 and 2, 4, 6, 4
+		Source oldChild = new Source("c2");
+		oldChild.setAverage(new Avg(name1, per, 4, 2.0, 4));
+		Source newChild = new Source("c2");
+		newChild.setAverage(new Avg(name1, per, 3, 1, 2)); // 2, 4
+		assertTrue(new AvgAvg(name1, per).update(parent, oldChild, newChild));
+		assertAvg(parent.getAverage(name1, per), 6, 3, 70.0 / 6 - 9);
+	}
+
+	public void testMaxValueUpdate() {
+		Source parent = new Source("parent");
+		Max max = new Max(name1, per, 5);
+		max.setHandle("c1");
+		parent.setMaximum(max);
+		MaxValue propagator = new MaxValue(name1, per);
+		assertTrue("smaller child can't change max", propagator.update(parent, child("c2", 3), child("c2", 4)));
+		assertEquals(5, parent.getMaximum(name1, per).intValue());
+		assertTrue("larger child becomes max", propagator.update(parent, child("c2", 4), child("c2", 8)));
+		assertEquals(8, parent.getMaximum(name1, per).intValue());
+		assertEquals("c2", parent.getMaximum(name1, per).getHandle());
+		assertFalse("max child got smaller, needs rescan", propagator.update(parent, child("c2", 8), child("c2", 2)));
+		assertFalse("max child removed, needs rescan", propagator.update(parent, child("c2", 8), null));
+	}
+
+	public void testMaxMaxUpdate() {
+		Source parent = new Source("parent");
+		Max max = new Max(name1, per, 10);
+		max.setHandle("m1");
+		parent.setMaximum(max);
+		Source oldChild = new Source("c1");
+		oldChild.setMaximum(max);
+		Source newChild = new Source("c1");
+		newChild.setMaximum(new Max(name1, per, 12));
+		MaxMax propagator = new MaxMax(name1, per);
+		assertTrue(propagator.update(parent, oldChild, newChild));
+		assertEquals(12, parent.getMaximum(name1, per).intValue());
+		assertFalse("max child got smaller, needs rescan", propagator.update(parent, newChild, oldChild));
+	}
+
+	private void assertAvg(Avg avg, int points, double value, double variance) {
+		assertEquals("Wrong number of points", points, avg.getPoints());
+		assertEquals("Wrong average", value, avg.doubleValue(), 1e-9);
+		assertEquals("Wrong variance", variance, avg.getVariance(), 1e-9);
+	}
+
+	private Source child(String handle, double value) {
+		Source child = new Source(handle);
+		child.getValues().put(name1, new Metric(name1, value));
+		return child;
+	}
+
+	static class Source extends AbstractMetricSource {
+
+		private static final long serialVersionUID = 1L;
+
+		Source(String handle) {
+			setHandle(handle);
+		}
+
+		@Override
+		protected void initializeChildren(AbstractMetricSource parentMetric) {
+		}
+
+		@Override
+		public ASTNode getASTNode() {
+			return null;
+		}
+
+		@Override
+		public int getLevel() {
+			return PACKAGEFRAGMENT;
+		}
+
+		@Override
+		public IXMLExporter getExporter() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.core.sources.SourceCache;
+
+/**
+ * @author Frank Sauer
+ */
+public class SourceCacheTests extends TestCase {
+
+	public SourceCacheTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(SourceCacheTests.class);
+	}
+
+	public void testHitsAndMisses() {
+		SourceCache cache = new SourceCache(10000);
+		AbstractMetricSource a = new PropagatorUpdateTests.Source("=p/src<a");
+		cache.put(a);
+		assertSame(a, cache.get("=p/src<a"));
+		assertNull(cache.get("=p/src<b"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testLeastRecentlyUsedIsEvicted() {
+		AbstractMetricSource a = new PropagatorUpdateTests.Source("=p/src<a");
+		AbstractMetricSource b = new PropagatorUpdateTests.Source("=p/src<b");
+		AbstractMetricSource c = new PropagatorUpdateTests.Source("=p/src<c");
+		SourceCache cache = new SourceCache(2 * 250, 1);
+		cache.put(a);
+		cache.put(b);
+		cache.get("=p/src<a");
+		cache.put(c);
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.getCount());
+		assertNull("b was used least recently", cache.get("=p/src<b"));
+		assertSame(a, cache.get("=p/src<a"));
+		assertSame(c, cache.get("=p/src<c"));
+		cache.setBudget(0);
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	public void testInvalidation() {
+		SourceCache cache = new SourceCache(10000);
+		cache.put(new PropagatorUpdateTests.Source("=p/src<a{A.java"));
+		cache.put(new PropagatorUpdateTests.Source("=p/src<a{B.java"));
+		cache.put(new PropagatorUpdateTests.Source("=p/src<b{C.java"));
+		cache.remove("=p/src<a{B.java");
+		assertNull(cache.get("=p/src<a{B.java"));
+		cache.removeAll("=p/src<a");
+		assertNull(cache.get("=p/src<a{A.java"));
+		assertNotNull(cache.get("=p/src<b{C.java"));
+		cache.clear();
+		assertEquals(0, cache.getCount());
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * many threads storing, reading and removing overlapping handles must leave the cache consistent
+	 */
+	public void testConcurrentAccess() throws InterruptedException {
+		final SourceCache cache = new SourceCache(64 * 1024);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int seed = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20000; i++) {
+							String handle = "=p/src<p" + ((i + seed) % 7) + "{C" + (i % 500) + ".java";
+							switch ((i * 31 + seed) % 10) {
+							case 0:
+								cache.remove(handle);
+								break;
+							case 1:
+								if (i % 100 == 0) {
+									cache.removeAll("=p/src<p" + (i % 7));
+								}
+								break;
+							case 2:
+							case 3:
+							case 4:
+								cache.put(new PropagatorUpdateTests.Source(handle));
+								break;
+							default:
+								AbstractMetricSource found = cache.get(handle);
+								if ((found != null) && !handle.equals(found.getHandle())) {
+									throw new IllegalStateException("got " + found.getHandle() + " for " + handle);
+								}
+							}
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue("errors: " + errors, errors.isEmpty());
+		assertTrue("over budget", cache.getSize() <= cache.getBudget());
+		assertEquals("size doesn't match entries", cache.getCount() * 250, cache.getSize(), 50 * cache.getCount());
+		assertEquals(8 * 20000 * 5 / 10, cache.getHits() + cache.getMisses());
+		cache.clear();
+		assertEquals(0, cache.getSize());
+	}
+}
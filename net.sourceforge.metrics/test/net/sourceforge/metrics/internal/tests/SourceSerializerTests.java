@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2003 Frank Sauer. All rights reserved.
+ *
+ * Licenced under CPL 1.0 (Common Public License Version 1.0).
+ * The licence is available at http://www.eclipse.org/legal/cpl-v10.html.
+ *
+ *
+ * DISCLAIMER OF WARRANTIES AND LIABILITY:
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS".  THE AUTHOR MAKES  NO REPRESENTATIONS OR WARRANTIES,
+ * EITHER EXPRESS OR IMPLIED.  TO THE EXTENT NOT PROHIBITED BY LAW, IN NO EVENT WILL THE
+ * AUTHOR  BE LIABLE FOR ANY DAMAGES, INCLUDING WITHOUT LIMITATION, LOST REVENUE,  PROFITS
+ * OR DATA, OR FOR SPECIAL, INDIRECT, CONSEQUENTIAL, INCIDENTAL  OR PUNITIVE DAMAGES,
+ * HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF  LIABILITY, ARISING OUT OF OR RELATED TO
+ * ANY FURNISHING, PRACTICING, MODIFYING OR ANY USE OF THE SOFTWARE, EVEN IF THE AUTHOR
+ * HAVE BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ *
+ * $id$
+ */
+package net.sourceforge.metrics.internal.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.sourceforge.metrics.core.Avg;
+import net.sourceforge.metrics.core.Constants;
+import net.sourceforge.metrics.core.Max;
+import net.sourceforge.metrics.core.Metric;
+import net.sourceforge.metrics.core.Sum;
+import net.sourceforge.metrics.core.sources.AbstractMetricSource;
+import net.sourceforge.metrics.core.sources.PackageFragmentMetrics;
+import net.sourceforge.metrics.core.sources.SourceSerializer;
+import net.sourceforge.metrics.core.sources.TypeMetrics;
+
+/**
+ * @author Frank Sauer
+ */
+public class SourceSerializerTests extends TestCase {
+
+	private static final String TYPE = "=proj/src<com.acme{Bar.java[Bar";
+
+	private SourceSerializer serializer;
+	private TypeMetrics source;
+
+	/**
+	 * Constructor for SourceSerializerTests.
+	 * 
+	 * @param arg0
+	 */
+	public SourceSerializerTests(String arg0) {
+		super(arg0);
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(SourceSerializerTests.class);
+	}
+
+	/**
+	 * @see junit.framework.TestCase#setUp()
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		serializer = new SourceSerializer(new SourceSerializer.Dictionary());
+		source = new TypeMetrics();
+		source.setHandle(TYPE);
+		source.getValues().put(Constants.NUM_METHODS, new Metric(Constants.NUM_METHODS, 12));
+		source.getValues().put(Constants.LCOM, new Metric(Constants.LCOM, 0.375));
+		source.getValues().put(Constants.MLOC, new Sum(Constants.MLOC, 140));
+		Avg avg = new Avg(Constants.MCCABE, Constants.PER_METHOD, 2.5, 1.25, 12);
+		source.getAverages().put(avg.getPer() + avg.getName(), avg);
+		Max max = new Max(Constants.MCCABE, Constants.PER_METHOD, 7);
+		max.setHandle(TYPE + "~baz~I");
+		source.getMaxima().put(max.getPer() + max.getName(), max);
+		source.getChildHandles().add(TYPE + "~baz~I");
+		source.getChildHandles().add(TYPE + "~baz~I~I");
+		source.getChildHandles().add(TYPE + "[Inner");
+	}
+
+	public void testSketchRoundTrip() throws Exception {
+		List<Metric> metrics = new ArrayList<Metric>();
+		metrics.add(new Metric(Constants.MCCABE, 0));
+		metrics.add(new Metric(Constants.MCCABE, 0.25));
+		metrics.add(new Metric(Constants.MCCABE, 3));
+		metrics.add(new Metric(Constants.MCCABE, 3));
+		metrics.add(new Metric(Constants.MCCABE, 250));
+		Avg avg = Avg.createFromMetrics(Constants.MCCABE, Constants.PER_CLASS, metrics);
+		source.getAverages().put(avg.getPer() + avg.getName(), avg);
+		AbstractMetricSource copy = (AbstractMetricSource) serializer.deserialize(serializer.serialize(source));
+		Avg read = copy.getAverage(Constants.MCCABE, Constants.PER_CLASS);
+		assertEquals(avg.getSketch().size(), read.getSketch().size());
+		for (double q = 0; q <= 1; q += 0.25) {
+			assertEquals(avg.getQuantile(q), read.getQuantile(q), 0);
+		}
+		assertNull(copy.getAverage(Constants.MCCABE, Constants.PER_METHOD).getSketch());
+	}
+
+	public void testRoundTrip() throws Exception {
+		AbstractMetricSource copy = (AbstractMetricSource) serializer.deserialize(serializer.serialize(source));
+		assertTrue(copy instanceof TypeMetrics);
+		assertEquals(TYPE, copy.getHandle());
+		assertEquals(12, copy.getValue(Constants.NUM_METHODS).intValue());
+		assertEquals(0.375, copy.getValue(Constants.LCOM).doubleValue(), 0);
+		assertTrue(copy.getValue(Constants.MLOC) instanceof Sum);
+		assertTrue(copy.getValue(Constants.MLOC).isPropagated());
+		Avg avg = copy.getAverage(Constants.MCCABE, Constants.PER_METHOD);
+		assertEquals(2.5, avg.doubleValue(), 0);
+		assertEquals(1.25, avg.getVariance(), 0);
+		assertEquals(12, avg.getPoints());
+		Max max = copy.getMaximum(Constants.MCCABE, Constants.PER_METHOD);
+		assertEquals(7, max.intValue());
+		assertEquals(TYPE + "~baz~I", max.getHandle());
+		assertEquals(source.getChildHandles(), copy.getChildHandles());
+	}
+
+	public void testEfferent() throws Exception {
+		PackageFragmentMetrics p = new PackageFragmentMetrics();
+		p.setHandle("=proj/src<com.acme");
+		Set<String> efferent = new HashSet<String>();
+		efferent.add("java.util");
+		efferent.add("com.acme.foo");
+		p.setEfferentDependencies(efferent);
+		p.setCalculatorsStamp(-42);
+		PackageFragmentMetrics copy = (PackageFragmentMetrics) serializer.deserialize(serializer.serialize(p));
+		assertEquals(efferent, copy.getEfferentDependencies());
+		assertEquals(-42, copy.getCalculatorsStamp());
+		p.setEfferentDependencies(null);
+		copy = (PackageFragmentMetrics) serializer.deserialize(serializer.serialize(p));
+		assertNull(copy.getEfferentDependencies());
+	}
+
+	public void testUnknownVersion() throws Exception {
+		byte[] bytes = serializer.serialize(source);
+		bytes[0] = (byte) (SourceSerializer.VERSION + 1);
+		assertNull(serializer.deserialize(bytes));
+	}
+
+	public void testSmallerThanJavaSerialization() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(source);
+		out.close();
+		assertTrue(serializer.serialize(source).length * 4 < bytes.size());
+	}
+
+	public void testDictionary() throws Exception {
+		SourceSerializer.Dictionary dictionary = serializer.getDictionary();
+		serializer.serialize(source);
+		int size = dictionary.size();
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (String next : new String[] { Constants.NUM_METHODS, Constants.MCCABE, Constants.PER_METHOD, "" }) {
+			ids.put(next, Integer.valueOf(dictionary.getId(next)));
+		}
+		serializer.serialize(source);
+		assertEquals(size, dictionary.size());
+		for (String next : ids.keySet()) {
+			assertEquals(next, dictionary.getName(ids.get(next).intValue()));
+		}
+	}
+}